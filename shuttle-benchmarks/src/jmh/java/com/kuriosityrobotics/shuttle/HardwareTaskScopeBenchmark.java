@@ -0,0 +1,33 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of a whole structured fork/join: open a scope, fork no-op subtasks, join, close.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HardwareTaskScopeBenchmark {
+	private static final HardwareTaskScope.HardwareTask<InterruptedException> NOOP = () -> {};
+
+	@Param({"1", "4", "32"})
+	public int subtasks;
+
+	@Benchmark
+	public void openForkJoinClose() throws InterruptedException {
+		try (var scope = HardwareTaskScope.open()) {
+			for (int i = 0; i < subtasks; i++)
+				scope.fork(NOOP);
+			scope.join();
+		}
+	}
+}
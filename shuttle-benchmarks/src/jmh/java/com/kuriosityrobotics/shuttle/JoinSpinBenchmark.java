@@ -0,0 +1,56 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Join latency with and without spinning before the owner parks, for a subtask that
+ * finishes within microseconds (like a sensor read) and for one that takes milliseconds
+ * (like waiting for a servo).  Spinning should cut the first, and leave the second
+ * unchanged: the adaptive spin shrinks to a sixteenth of its maximum while subtasks keep
+ * outlasting it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JoinSpinBenchmark {
+	@Param({"0", "50"})
+	public long spinMicros;
+
+	@Param({"0", "2000"})
+	public long workMicros;
+
+	private StructuredTaskScope.Configuration config;
+	private HardwareTaskScope.HardwareTask<InterruptedException> task;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		config = StructuredTaskScope.Configuration.defaults()
+				.withWorkerPool(new WorkerPool("bench", Duration.ofSeconds(60)))
+				.withJoinSpin(Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(spinMicros)));
+
+		long workNanos = TimeUnit.MICROSECONDS.toNanos(workMicros);
+		task = (workNanos == 0)
+				? () -> Blackhole.consumeCPU(64)
+				: () -> LockSupport.parkNanos(workNanos);
+	}
+
+	@Benchmark
+	public void forkJoin() throws InterruptedException {
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, config)) {
+			scope.fork(task);
+			scope.join();
+		}
+	}
+}
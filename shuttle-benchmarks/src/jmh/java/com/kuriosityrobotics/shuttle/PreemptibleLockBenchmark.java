@@ -0,0 +1,154 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PreemptibleLockBenchmark {
+	@State(Scope.Thread)
+	public static class Uncontended {
+		final PreemptibleLock lock = new PreemptibleLock();
+	}
+
+	@Benchmark
+	public void lockUnlock(Uncontended state) {
+		state.lock.lock();
+		state.lock.unlock();
+	}
+
+	@Benchmark
+	public void reentrantLockUnlock(Uncontended state) {
+		state.lock.lock();
+		try {
+			state.lock.lock();
+			state.lock.unlock();
+		} finally {
+			state.lock.unlock();
+		}
+	}
+
+	@Benchmark
+	public boolean isLocked(Uncontended state) {
+		return state.lock.isLocked();
+	}
+
+	/**
+	 * A background thread that takes the lock whenever it is free (without preempting
+	 * anyone) and holds it until it is preempted.
+	 */
+	@State(Scope.Thread)
+	public static class Held {
+		final PreemptibleLock lock = new PreemptibleLock();
+		volatile boolean running = true;
+		Thread holder;
+
+		@Setup(Level.Trial)
+		public void startHolder() {
+			holder = new Thread(() -> {
+				while (running) {
+					if (!lock.tryLock()) {
+						Thread.yield();
+						continue;
+					}
+					try {
+						while (running && !Thread.interrupted())
+							LockSupport.parkNanos(1_000_000);
+					} finally {
+						lock.unlock();
+					}
+				}
+			}, "holder");
+			holder.setDaemon(true);
+			holder.start();
+		}
+
+		@Setup(Level.Invocation)
+		public void awaitHeld() {
+			while (!lock.isLocked())
+				Thread.yield();
+		}
+
+		@TearDown(Level.Trial)
+		public void stopHolder() throws InterruptedException {
+			running = false;
+			holder.interrupt();
+			holder.join();
+		}
+	}
+
+	/**
+	 * Time from calling lock() on a lock held by another thread until owning it: the
+	 * preemption, the holder noticing the interrupt, and the handoff.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void preemptAndAcquire(Held state) {
+		state.lock.lock();
+		state.lock.unlock();
+	}
+
+	/**
+	 * Background threads that keep taking the lock and releasing it as soon as they are
+	 * preempted, so that the lock is always held and there is a queue behind it.
+	 */
+	@State(Scope.Thread)
+	public static class Convoy {
+		@Param({"1", "4"})
+		int contenders;
+
+		final PreemptibleLock lock = new PreemptibleLock();
+		volatile boolean running = true;
+		Thread[] threads;
+
+		@Setup(Level.Trial)
+		public void startContenders() {
+			threads = new Thread[contenders];
+			for (int i = 0; i < contenders; i++) {
+				threads[i] = new Thread(() -> {
+					while (running) {
+						lock.lock();
+						try {
+							while (running && !Thread.interrupted())
+								LockSupport.parkNanos(1_000_000);
+						} finally {
+							lock.unlock();
+						}
+					}
+				}, "contender-" + i);
+				threads[i].setDaemon(true);
+				threads[i].start();
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void stopContenders() throws InterruptedException {
+			running = false;
+			for (Thread thread : threads)
+				thread.interrupt();
+			for (Thread thread : threads)
+				thread.join();
+		}
+	}
+
+	/**
+	 * Time to acquire the lock behind a queue of other preempting threads.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void convoyLockUnlock(Convoy state) {
+		state.lock.lock();
+		state.lock.unlock();
+	}
+}
@@ -0,0 +1,79 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Walks a live tree of scopes: a top-level scope with {@code width} subtasks, each of
+ * which opens a nested scope with {@code width} blocked subtasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThreadContainersBenchmark {
+	@Param({"4", "16"})
+	public int width;
+
+	private CountDownLatch release;
+	private CountDownLatch ready;
+	private Thread owner;
+
+	@Setup(Level.Trial)
+	public void buildTree() throws InterruptedException {
+		release = new CountDownLatch(1);
+		ready = new CountDownLatch(width * width);
+		owner = new Thread(() -> {
+			try (var scope = HardwareTaskScope.open()) {
+				for (int i = 0; i < width; i++) {
+					scope.fork(() -> {
+						try (var nested = HardwareTaskScope.open()) {
+							for (int j = 0; j < width; j++) {
+								nested.fork(() -> {
+									ready.countDown();
+									release.await();
+								});
+							}
+							nested.join();
+						}
+					});
+				}
+				scope.join();
+			} catch (InterruptedException ignored) {
+			}
+		}, "tree-owner");
+		owner.start();
+		ready.await();
+	}
+
+	@TearDown(Level.Trial)
+	public void releaseTree() throws InterruptedException {
+		release.countDown();
+		owner.join();
+	}
+
+	@Benchmark
+	public long children() {
+		return ThreadContainers.root().children().count();
+	}
+
+	@Benchmark
+	public long walkTree() {
+		return walk(ThreadContainers.root());
+	}
+
+	private static long walk(ThreadContainer container) {
+		return container.threadCount()
+				+ container.children().mapToLong(ThreadContainersBenchmark::walk).sum();
+	}
+}
@@ -0,0 +1,46 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimeBenchmark {
+	private final Instant start = Instant.now();
+	private final Duration timeout = Duration.ofSeconds(5);
+
+	@Benchmark
+	public Instant now() {
+		return Instant.now();
+	}
+
+	@Benchmark
+	public Instant add() {
+		return start.add(timeout);
+	}
+
+	@Benchmark
+	public Duration since() {
+		return Instant.now().since(start);
+	}
+
+	@Benchmark
+	public Duration between() {
+		return Duration.between(start, Instant.now());
+	}
+
+	/**
+	 * The time math LinearMotorControl does on every poll.
+	 */
+	@Benchmark
+	public boolean timeoutCheck() {
+		return Instant.now().since(start).isGreaterThan(timeout);
+	}
+}
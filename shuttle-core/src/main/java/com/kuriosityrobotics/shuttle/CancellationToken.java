@@ -0,0 +1,564 @@
+package com.kuriosityrobotics.shuttle;
+
+/**
+ * A request to stop some piece of work, which the work checks for cooperatively.
+ * <p>
+ * Every subtask forked in a task scope runs with its own token, which is cancelled when
+ * the scope shuts down, and every task scope has a token that is a child of the token of
+ * the code that opened it.  While a subtask holds a {@link PreemptibleLock}, it runs under
+ * a child token for as long as it holds the lock, which the lock cancels if it preempts
+ * the subtask; the subtask's own token is left alone.  Code can find the token it is
+ * running under with {@link #current()}.
+ * <p>
+ * Cancellation can be observed in three ways:
+ * <ul>
+ *   <li>by polling {@link #isCancelled()}, which is a couple of volatile reads, or
+ *   {@link #throwIfCancelled()};
+ *   <li>by waiting with {@link #sleep(Duration)} or {@link #sleepUntil(Instant)}, which
+ *   wake up as soon as the token is cancelled;
+ *   <li>by registering a callback with {@link #onCancel(Runnable)}, for example to stop a
+ *   motor or to wake up some other kind of blocking call.
+ * </ul>
+ * A cancelled token stays cancelled.  A token is also cancelled when its parent is.
+ * <p>
+ * Unlike an interrupt, a cancellation cannot be swallowed by code that catches
+ * {@link InterruptedException} and carries on, and it does not affect unrelated blocking
+ * calls made by the cancelled code.  Task scopes and locks still interrupt threads as
+ * well by default, so that code that only knows about interrupts keeps working; see
+ * {@link StructuredTaskScope.Configuration#withInterruptOnShutdown(boolean)} and
+ * {@link PreemptibleLock#PreemptibleLock(boolean, boolean)}.
+ */
+public class CancellationToken {
+	private static final JavaLangAccess JLA = SharedSecrets.getJavaLangAccess();
+
+	// the token of code that is not running under any other token; never cancelled
+	private static final CancellationToken NONE = new CancellationToken(null);
+
+	// spinning only pays off when other threads can run on another core meanwhile
+	private static final long DEFAULT_SLACK_NANOS =
+			(Runtime.getRuntime().availableProcessors() > 1) ? 1_000_000L : 0L;
+
+	/**
+	 * The slack {@link #sleepUntil(Instant)} spins for before its deadline: one
+	 * millisecond, or zero on a single-core machine.
+	 */
+	public static final Duration DEFAULT_SLACK = Duration.ofNanos(DEFAULT_SLACK_NANOS);
+
+	private CancellationToken parent; // only changed when a Hold is reused
+	private volatile boolean cancelled;
+	private boolean preempted; // written before cancelled
+	private volatile boolean lostHold; // a lock held under this token was preempted
+
+	// callbacks, guarded by this
+	private Registration head;
+	// our callback on the parent, registered while we have callbacks of our own; guarded by this
+	private Registration parentRegistration;
+
+	/**
+	 * Creates a token that is cancelled when the given parent token is cancelled.
+	 *
+	 * @param parent the parent token, can be null
+	 */
+	public CancellationToken(CancellationToken parent) {
+		this.parent = (parent == NONE) ? null : parent;
+	}
+
+	/**
+	 * Creates a token without a parent.
+	 */
+	public CancellationToken() {
+		this(null);
+	}
+
+	/**
+	 * Returns the token of the subtask the current thread is running, or a token that
+	 * is never cancelled if it is not running one.
+	 */
+	public static CancellationToken current() {
+		CancellationToken token = currentOrNull();
+		return (token != null) ? token : NONE;
+	}
+
+	/**
+	 * Returns the current thread's token, or null if it is not running under one.
+	 */
+	static CancellationToken currentOrNull() {
+		return JLA.cancellationToken(Thread.currentThread());
+	}
+
+	/**
+	 * Cancels a lock holder's hold, on behalf of a lock that preempts it, unless the holder
+	 * has released it since the given {@link Hold#generation() generation} was read.  The
+	 * holder, if given, is interrupted before it can release the hold.  Exceptions thrown
+	 * by callbacks must not fail the preempting acquisition, so they go to the current
+	 * thread's uncaught exception handler.
+	 */
+	static void preempt(Hold hold, int generation, Thread holder) {
+		CancellationToken token = hold; // cancel() is private to this class
+		try {
+			token.cancel(true, generation, holder);
+		} catch (Throwable e) {
+			Thread current = Thread.currentThread();
+			current.getUncaughtExceptionHandler().uncaughtException(current, e);
+		}
+	}
+
+	/**
+	 * Returns true if a lock held under this token has been preempted since the token last
+	 * took a lock while holding none.  The holder may have been interrupted as well, so it
+	 * may have failed with a plain {@link InterruptedException} rather than a
+	 * {@link PreemptedException}.
+	 */
+	boolean hasLostHold() {
+		return lostHold;
+	}
+
+	/**
+	 * Makes the given token the current thread's token, returning the previous one.
+	 */
+	static CancellationToken setCurrent(CancellationToken token) {
+		CancellationToken previous = current();
+		JLA.setCancellationToken((token == NONE) ? null : token);
+		return previous;
+	}
+
+	/**
+	 * Returns true if this token, or one of its ancestors, has been cancelled.
+	 */
+	public final boolean isCancelled() {
+		for (CancellationToken token = this; token != null; token = token.parent) {
+			if (token.cancelled)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Cancels this token and every token derived from it, then runs the callbacks
+	 * registered on this token.  Has no effect if the token is already cancelled.
+	 * <p>
+	 * Callbacks run on the current thread.  If any of them throws, the others still run,
+	 * and the first exception is rethrown afterwards.
+	 *
+	 * @throws UnsupportedOperationException if this is the token of code that is not
+	 * running under any other token
+	 */
+	public void cancel() {
+		cancel(false, 0, null);
+	}
+
+	private void cancel(boolean preempted, int generation, Thread holder) {
+		if (this == NONE)
+			throw new UnsupportedOperationException("Cannot cancel the root token");
+
+		Registration callbacks;
+		Registration link;
+		synchronized (this) {
+			if (preempted) {
+				Hold hold = (Hold) this;
+				if (hold.generation != generation)
+					return; // released since
+				hold.owner().lostHold = true;
+				if (holder != null)
+					holder.interrupt();
+			}
+			if (cancelled)
+				return;
+			this.preempted = preempted;
+			cancelled = true;
+			callbacks = head;
+			head = null;
+			for (Registration r = callbacks; r != null; r = r.next)
+				r.token = null; // closing it is now a no-op
+			link = parentRegistration;
+			parentRegistration = null;
+		}
+		if (link != null)
+			link.close();
+
+		Throwable failure = null;
+		for (Registration r = callbacks; r != null; r = r.next) {
+			try {
+				r.action.run();
+			} catch (Throwable e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+	}
+
+	/**
+	 * Registers an action to run when this token is cancelled.  If it already is, the
+	 * action runs immediately on the current thread.
+	 * <p>
+	 * Actions should be short and must not block, since they run on the thread that
+	 * cancels the token; a preempting lock acquisition, for example.
+	 *
+	 * @return a registration that removes the action again when closed
+	 */
+	public Registration onCancel(Runnable action) {
+		Registration r = new Registration(this, action);
+		boolean runNow;
+		boolean needsLink = false;
+		synchronized (this) {
+			runNow = isCancelled();
+			if (!runNow) {
+				r.next = head;
+				if (head != null)
+					head.prev = r;
+				head = r;
+				needsLink = (parent != null && parentRegistration == null);
+			}
+		}
+
+		if (runNow) {
+			r.token = null;
+			action.run();
+		} else if (needsLink) {
+			linkToParent();
+		}
+		return r;
+	}
+
+	/**
+	 * Makes cancellation of the parent run our callbacks.  Tokens are only linked while
+	 * they have callbacks, so that short-lived children do not pile up in their parent.
+	 */
+	private void linkToParent() {
+		Registration link = parent.onCancel(this::cancel);
+		synchronized (this) {
+			if (parentRegistration == null && head != null && !cancelled) {
+				parentRegistration = link;
+				return;
+			}
+		}
+		link.close(); // raced with another registration, or all callbacks are gone again
+	}
+
+	private void remove(Registration r) {
+		Registration link = null;
+		synchronized (this) {
+			if (r.token == null)
+				return; // already removed, or run
+			r.token = null;
+			if (r.prev != null)
+				r.prev.next = r.next;
+			else
+				head = r.next;
+			if (r.next != null)
+				r.next.prev = r.prev;
+			r.prev = r.next = null;
+
+			if (head == null) {
+				link = parentRegistration;
+				parentRegistration = null;
+			}
+		}
+		if (link != null)
+			link.close();
+	}
+
+	// must hold the token's monitor
+	private static void setParent(CancellationToken token, CancellationToken parent) {
+		token.parent = parent;
+	}
+
+	/**
+	 * Returns true if nothing has been done with the given token: it is not cancelled and
+	 * has no callbacks.  Must be called holding the token's monitor.
+	 */
+	private static boolean isUnused(CancellationToken token) {
+		return !token.cancelled && token.head == null && token.parentRegistration == null;
+	}
+
+	/**
+	 * Throws {@link CancelledException}, or {@link PreemptedException} if the cancellation
+	 * came from a lock, if this token has been cancelled.
+	 */
+	public final void throwIfCancelled() throws CancelledException {
+		if (isCancelled())
+			throw newCancelledException();
+	}
+
+	private CancelledException newCancelledException() {
+		for (CancellationToken token = this; token != null; token = token.parent) {
+			if (token.cancelled && token.preempted)
+				return new PreemptedException();
+		}
+		return new CancelledException();
+	}
+
+	/**
+	 * Sleeps for the given duration, unless this token is cancelled or the current thread
+	 * is interrupted first.
+	 *
+	 * @throws CancelledException if this token was cancelled
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public void sleep(Duration duration) throws InterruptedException {
+		sleepNanos(duration.toNanos());
+	}
+
+	/**
+	 * Sleeps for the given number of nanoseconds, like {@link #sleep(Duration)}.
+	 *
+	 * @throws CancelledException if this token was cancelled
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public void sleepNanos(long nanos) throws InterruptedException {
+		checkCancelledOrInterrupted();
+
+		Clock clock = Clock.current();
+		sleepUntil(clock, clock.nanoTime() + nanos, 0L);
+	}
+
+	/**
+	 * Sleeps until the given deadline, unless this token is cancelled or the current
+	 * thread is interrupted first, waking up as close to the deadline as the
+	 * {@linkplain #DEFAULT_SLACK default slack} allows.
+	 *
+	 * @throws CancelledException if this token was cancelled
+	 * @throws InterruptedException if the thread was interrupted
+	 * @see #sleepUntil(Instant, Duration)
+	 */
+	public void sleepUntil(Instant deadline) throws InterruptedException {
+		sleepUntilNanos(deadline.toNanos(), DEFAULT_SLACK_NANOS);
+	}
+
+	/**
+	 * Sleeps until the given deadline, unless this token is cancelled or the current
+	 * thread is interrupted first.
+	 * <p>
+	 * A parked thread can wake up well after its deadline, by several milliseconds on
+	 * Android, which adds up when one motion waits for the next.  So this method parks
+	 * only until {@code slack} before the deadline, and spins, still checking for
+	 * cancellation, for the rest.  A larger slack is more precise and burns more CPU; a
+	 * zero slack only parks.  Under a clock other than the {@linkplain Clock#system()
+	 * system clock} the slack is ignored, since virtual time does not pass while spinning.
+	 *
+	 * @throws CancelledException if this token was cancelled
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public void sleepUntil(Instant deadline, Duration slack) throws InterruptedException {
+		sleepUntilNanos(deadline.toNanos(), slack.toNanos());
+	}
+
+	/**
+	 * Sleeps until the given deadline, like {@link #sleepUntil(Instant, Duration)}, without
+	 * allocating.
+	 *
+	 * @param deadlineNanos the deadline, as {@linkplain Instant#toNanos() Instant nanos}
+	 * @param slackNanos    how long before the deadline to stop parking and start spinning
+	 */
+	public void sleepUntilNanos(long deadlineNanos, long slackNanos) throws InterruptedException {
+		if (slackNanos < 0)
+			throw new IllegalArgumentException("'slackNanos' is negative");
+		checkCancelledOrInterrupted();
+
+		Clock clock = Clock.current();
+		if (clock != Clock.system())
+			slackNanos = 0L;
+		sleepUntil(clock, Instant.toClockNanos(deadlineNanos), slackNanos);
+	}
+
+	/**
+	 * Parks until {@code slackNanos} before the deadline, read from the given clock, then
+	 * spins until the deadline.
+	 */
+	private void sleepUntil(Clock clock, long deadline, long slackNanos) throws InterruptedException {
+		if (deadline - clock.nanoTime() <= 0)
+			return;
+
+		Registration registration = unparkOnCancel(clock, Thread.currentThread());
+		try {
+			while (true) {
+				checkCancelledOrInterrupted();
+
+				long remaining = deadline - clock.nanoTime();
+				if (remaining <= 0)
+					return;
+				if (remaining > slackNanos)
+					clock.parkNanos(this, remaining - slackNanos);
+			}
+		} finally {
+			if (registration != null)
+				registration.close();
+		}
+	}
+
+	/**
+	 * Unparks the given thread through the given clock when this token is cancelled, for
+	 * waits that should end on cancellation.  Returns null for the root token, which is
+	 * never cancelled.
+	 */
+	Registration unparkOnCancel(Clock clock, Thread thread) {
+		return (this != NONE) ? onCancel(() -> clock.unpark(thread)) : null;
+	}
+
+	/**
+	 * A thread that is cancelled is often interrupted as well, for the same reason, so the
+	 * interrupt is consumed along with the cancellation.
+	 */
+	void checkCancelledOrInterrupted() throws InterruptedException {
+		boolean interrupted = Thread.interrupted();
+		if (isCancelled())
+			throw newCancelledException();
+		if (interrupted)
+			throw new InterruptedException();
+	}
+
+	@Override
+	public String toString() {
+		return Util.toIdentityString(this) + (isCancelled() ? "[Cancelled]" : "");
+	}
+
+	/**
+	 * The token of a thread holding a lock: a child of the token the thread was running
+	 * under when it took the lock, and its current token until it releases the lock.
+	 * Preempting the thread cancels the hold, ending the work it does under the lock,
+	 * while the token it goes back to afterwards stays as it was.
+	 */
+	static final class Hold extends CancellationToken {
+		private CancellationToken outer; // only changed when the hold is reused
+		private volatile boolean released;
+		private boolean entered; // only accessed by the holder
+		private Hold nextSpare; // in its thread's list of spare holds
+		// changes whenever the hold is released or reused; written while holding this
+		private volatile int generation;
+
+		private Hold(CancellationToken outer) {
+			super(outer);
+			this.outer = outer;
+		}
+
+		/**
+		 * Returns a hold for the current thread, which is running under the given token, or
+		 * null if it is not running under any; such a thread can only be preempted by
+		 * interrupting it.  A hold the thread has released before is reused if nothing
+		 * observed it, so that taking a lock does not allocate.
+		 */
+		static Hold take(CancellationToken outer) {
+			if (outer == null)
+				return null;
+			// taking a lock while holding none: the last preemption has been dealt with
+			if (!(outer instanceof Hold) && outer.lostHold)
+				outer.lostHold = false;
+
+			Hold hold;
+			while ((hold = JLA.spareHolds()) != null) {
+				JLA.setSpareHolds(hold.nextSpare);
+				hold.nextSpare = null;
+				if (hold.reuse(outer))
+					return hold;
+			}
+			return new Hold(outer);
+		}
+
+		private boolean reuse(CancellationToken outer) {
+			synchronized (this) {
+				if (!isUnused(this))
+					return false; // preempted, or the parent of tokens that outlived it
+				CancellationToken.setParent(this, outer);
+				this.outer = outer;
+				generation++;
+			}
+			released = false;
+			entered = false;
+			return true;
+		}
+
+		/**
+		 * Returns the token the current thread runs under once it releases the given hold,
+		 * which may be null.
+		 */
+		static CancellationToken afterRelease(Hold hold) {
+			CancellationToken current = currentOrNull();
+			return (hold != null && current == hold) ? hold.enclosing() : current;
+		}
+
+		/**
+		 * Makes this hold the current thread's token.  Called by the holder.
+		 */
+		void enter() {
+			entered = true;
+			JLA.setCancellationToken(this);
+		}
+
+		/**
+		 * Goes back to the token the holder ran under before, if this hold is still its
+		 * current token, and keeps the hold for reuse.  Called by the holder, also for a
+		 * hold that it never entered because it did not get the lock.
+		 */
+		void release() {
+			released = true;
+			synchronized (this) {
+				generation++; // a preemption that raced with the release no longer applies
+			}
+			boolean current = (currentOrNull() == this);
+			if (current)
+				JLA.setCancellationToken(enclosing());
+
+			// a hold released out of order may still be the outer token of the current one
+			if (current || !entered) {
+				nextSpare = JLA.spareHolds();
+				JLA.setSpareHolds(this);
+			}
+		}
+
+		/**
+		 * Returns the current generation of this hold, which a preemption passes back to
+		 * {@link CancellationToken#preempt} so that it cancels only the ownership it saw.
+		 */
+		int generation() {
+			return generation;
+		}
+
+		/**
+		 * Returns the token, other than a hold, that the holder took the lock under.
+		 */
+		CancellationToken owner() {
+			CancellationToken token = outer;
+			while (token instanceof Hold)
+				token = ((Hold) token).outer;
+			return token;
+		}
+
+		// locks may be released out of order, so skip the holds of those already released
+		private CancellationToken enclosing() {
+			CancellationToken token = outer;
+			while (token instanceof Hold && ((Hold) token).released)
+				token = ((Hold) token).outer;
+			return token;
+		}
+	}
+
+	/**
+	 * An action registered with {@link #onCancel(Runnable)}.
+	 */
+	public static final class Registration implements AutoCloseable {
+		private final Runnable action;
+		// null once removed or run; written while holding the token's monitor
+		private volatile CancellationToken token;
+		private Registration prev, next; // guarded by the token
+
+		private Registration(CancellationToken token, Runnable action) {
+			this.token = token;
+			this.action = action;
+		}
+
+		/**
+		 * Removes the action, if it has not run yet.
+		 */
+		@Override
+		public void close() {
+			CancellationToken token = this.token;
+			if (token != null)
+				token.remove(this);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package com.kuriosityrobotics.shuttle;
+
+/**
+ * Thrown when work stops because its {@link CancellationToken} was cancelled, for example
+ * because its task scope shut down.
+ * <p>
+ * Cancellation is expected control flow rather than a failure, so this exception does not
+ * capture a stack trace, and {@link HardwareTaskScope} does not treat subtasks that end with
+ * it as failed.
+ */
+public class CancelledException extends InterruptedException {
+	public CancelledException() {
+		super("Cancelled");
+	}
+
+	protected CancelledException(String message) {
+		super(message);
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this; // stackless
+	}
+}
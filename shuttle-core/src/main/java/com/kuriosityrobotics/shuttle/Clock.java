@@ -0,0 +1,100 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The source of time for {@link Instant#now()} and for every timed wait in the library:
+ * {@linkplain CancellationToken#sleep(Duration) sleeps}, {@code joinUntil}, timed lock
+ * acquisitions and condition waits, and the mechanism waits built on them.
+ * <p>
+ * The library uses the {@linkplain #current() current clock}, which is the
+ * {@linkplain #system() system clock} unless a test or simulator
+ * {@linkplain #set(Clock) installs} another one, typically a {@link VirtualClock}.
+ * <p>
+ * Latency measurements, such as {@link ScopeMetrics}, keep using real time, since they
+ * measure how long the CPU took rather than how long a mechanism was waited for.
+ */
+public abstract class Clock {
+	private static final Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+
+		@Override
+		public String toString() {
+			return "Clock.system()";
+		}
+	};
+
+	private static volatile Clock current = SYSTEM;
+
+	protected Clock() {}
+
+	/**
+	 * Returns the clock that reads {@link System#nanoTime()} and waits in real time.
+	 */
+	public static Clock system() {
+		return SYSTEM;
+	}
+
+	/**
+	 * Returns the clock the library currently uses.
+	 */
+	public static Clock current() {
+		return current;
+	}
+
+	/**
+	 * Makes the library use the given clock, for every wait that starts from now on.
+	 * Waits that already started keep using the clock they started with.
+	 */
+	public static void set(Clock clock) {
+		current = Objects.requireNonNull(clock, "'clock' is null");
+	}
+
+	/**
+	 * Returns the current time of this clock, in nanoseconds from some fixed but arbitrary
+	 * origin, like {@link System#nanoTime()}.  Never decreases.
+	 */
+	public abstract long nanoTime();
+
+	/**
+	 * Disables the current thread until this clock has advanced by the given number of
+	 * nanoseconds, the thread is {@linkplain LockSupport#unpark(Thread) unparked} or
+	 * interrupted, or spuriously, like {@link LockSupport#parkNanos(Object, long)}.
+	 * Callers check their condition and the time again when it returns.
+	 */
+	public void parkNanos(Object blocker, long nanos) {
+		LockSupport.parkNanos(blocker, nanos);
+	}
+
+	/**
+	 * Disables the current thread until it is unparked or interrupted, or spuriously,
+	 * like {@link LockSupport#park(Object)}.  The library parks through the current clock,
+	 * rather than {@code LockSupport} directly, so that a {@link Simulation} can decide
+	 * which thread runs next.
+	 */
+	public void park(Object blocker) {
+		LockSupport.park(blocker);
+	}
+
+	/**
+	 * Wakes up the given thread if it is parked, or makes its next park return straight
+	 * away, like {@link LockSupport#unpark(Thread)}.
+	 */
+	public void unpark(Thread thread) {
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Returns the factory a task scope opened by the current thread while this clock is
+	 * current forks onto, overriding its configuration, or null to keep to the
+	 * configuration.
+	 */
+	ThreadFactory threadFactory() {
+		return null;
+	}
+}
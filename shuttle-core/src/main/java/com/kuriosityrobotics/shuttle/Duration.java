@@ -5,6 +5,12 @@ public final class Duration implements Comparable<Duration> {
 	private static final long NANOS_PER_MILLI = 1_000_000L;
 	private static final long NANOS_PER_SECOND = 1_000_000_000L;
 
+	/**
+	 * The zero duration.  Every factory method returns this instance for zero, rather than
+	 * allocating a new one.
+	 */
+	public static final Duration ZERO = new Duration(0L);
+
 	private final long nanos;
 
 	private Duration(long time) {
@@ -12,11 +18,11 @@ public final class Duration implements Comparable<Duration> {
 	}
 
 	public static Duration ofNanos(long nanos) {
-		return new Duration(nanos);
+		return (nanos == 0L) ? ZERO : new Duration(nanos);
 	}
 
 	public static Duration ofMillis(long millis) {
-		return new Duration(millis * NANOS_PER_MILLI);
+		return ofNanos(millis * NANOS_PER_MILLI);
 	}
 
 	public static Duration ofSeconds(double seconds) {
@@ -24,11 +30,11 @@ public final class Duration implements Comparable<Duration> {
 	}
 
 	public static Duration between(Instant now, Instant deadline) {
-		return new Duration(deadline.toNanos() - now.toNanos());
+		return ofNanos(deadline.toNanos() - now.toNanos());
 	}
 
 	public Duration negated() {
-		return new Duration(-nanos);
+		return (nanos == 0L) ? this : new Duration(-nanos);
 	}
 
 	public long toNanos() {
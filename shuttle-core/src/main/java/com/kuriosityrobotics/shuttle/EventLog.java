@@ -0,0 +1,254 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size ring buffer of what task scopes, locks and mechanisms did recently, for
+ * working out what went wrong in a match after it is over.
+ * <p>
+ * The library records into the {@linkplain #shared() shared log} all the time.  Recording
+ * an event takes a timestamp and a few atomic writes, and never blocks or allocates, so
+ * the log can stay enabled in competition builds.  Once the buffer is full, each new
+ * event overwrites the oldest one.
+ * <p>
+ * Events are binary: a type, the {@linkplain Instant#toNanos() time}, the id of the
+ * thread that recorded it, the id of its subject (a task scope, lock or mechanism) and
+ * one more number whose meaning depends on the type.  {@link #dump(File)} writes them to
+ * a compact file, typically from an OpMode's {@code stop()}, and {@link #read(InputStream)}
+ * reads it back.
+ */
+public final class EventLog {
+	/**
+	 * What an event records.  The ordinal is what is written to dumps, so new types are
+	 * only ever added at the end.
+	 */
+	public enum Type {
+		/** A task scope was opened by the recording thread.  The detail is unused. */
+		SCOPE_OPEN,
+		/** A subtask was forked.  The detail is unused. */
+		FORK,
+		/** A subtask finished.  The detail is the ordinal of its {@link StructuredTaskScope.Subtask.State}. */
+		COMPLETE,
+		/** A task scope shut down.  The detail is the number of threads interrupted. */
+		SHUTDOWN,
+		/** A task scope was closed.  The detail is unused. */
+		SCOPE_CLOSE,
+		/** A lock preempted its holder.  The subject is the lock, and the detail the holder's thread id. */
+		PREEMPT,
+		/** A mechanism gave up waiting to reach its target.  The detail is the timeout in milliseconds. */
+		TIMEOUT;
+
+		private static final Type[] VALUES = values();
+	}
+
+	private static final int DEFAULT_CAPACITY = 4096;
+	private static final EventLog SHARED = new EventLog(DEFAULT_CAPACITY);
+	private static final AtomicInteger NEXT_SUBJECT_ID = new AtomicInteger();
+
+	private static final int FORMAT_MAGIC = 0x5348544c; // "SHTL"
+	private static final int FORMAT_VERSION = 1;
+
+	// each event takes SLOTS_PER_EVENT consecutive slots: its sequence number plus one
+	// (0 while the event is being written), its time, its type and thread, and its
+	// subject and detail
+	private static final int SLOTS_PER_EVENT = 4;
+
+	private final AtomicLongArray slots;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong(); // the sequence number of the next event
+
+	/**
+	 * Creates a log that holds the given number of most recent events.
+	 *
+	 * @param capacity a power of two
+	 */
+	public EventLog(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("'capacity' must be a power of two");
+		if (capacity > Integer.MAX_VALUE / SLOTS_PER_EVENT)
+			throw new IllegalArgumentException("'capacity' is too large");
+		this.slots = new AtomicLongArray(capacity * SLOTS_PER_EVENT);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Returns the log the library records into.
+	 */
+	public static EventLog shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns a new id to record events about some subject under, such as a mechanism.
+	 * Ids are unique among subjects created in this process, until they wrap around.
+	 */
+	public static int newSubjectId() {
+		return NEXT_SUBJECT_ID.getAndIncrement();
+	}
+
+	/**
+	 * Returns the number of events this log holds once it is full.
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Records an event, made by the current thread, now.
+	 */
+	public void record(Type type, int subject, int detail) {
+		long time = Instant.nowNanos();
+		long thread = Thread.currentThread().getId();
+
+		long sequence = next.getAndIncrement();
+		int base = (int) (sequence & mask) * SLOTS_PER_EVENT;
+		slots.lazySet(base, 0L); // readers skip the event until it is complete
+		slots.lazySet(base + 1, time);
+		slots.lazySet(base + 2, ((long) type.ordinal() << 32) | (thread & 0xffffffffL));
+		slots.lazySet(base + 3, ((long) subject << 32) | (detail & 0xffffffffL));
+		slots.lazySet(base, sequence + 1);
+	}
+
+	/**
+	 * Returns the events in the log, oldest first.  Events being recorded concurrently,
+	 * or overwritten while they are read, are left out.
+	 */
+	public List<Entry> entries() {
+		long end = next.get();
+		long start = Math.max(0L, end - capacity());
+		List<Entry> entries = new ArrayList<>((int) (end - start));
+		for (long sequence = start; sequence < end; sequence++) {
+			int base = (int) (sequence & mask) * SLOTS_PER_EVENT;
+			if (slots.get(base) != sequence + 1)
+				continue;
+			long time = slots.get(base + 1);
+			long header = slots.get(base + 2);
+			long payload = slots.get(base + 3);
+			if (slots.get(base) != sequence + 1)
+				continue; // overwritten meanwhile
+
+			int type = (int) (header >>> 32);
+			if (type < Type.VALUES.length)
+				entries.add(new Entry(Type.VALUES[type], time, (int) header, (int) (payload >>> 32), (int) payload));
+		}
+		return entries;
+	}
+
+	/**
+	 * Writes the events in the log, oldest first, to the given file.
+	 */
+	public void dump(File file) throws IOException {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+			dump(out);
+		}
+	}
+
+	/**
+	 * Writes the events in the log, oldest first, to the given stream, without closing it.
+	 * Each event takes 21 bytes.
+	 */
+	public void dump(OutputStream out) throws IOException {
+		List<Entry> entries = entries();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(FORMAT_MAGIC);
+		data.writeInt(FORMAT_VERSION);
+		data.writeInt(entries.size());
+		for (Entry entry : entries) {
+			data.writeByte(entry.type.ordinal());
+			data.writeLong(entry.timeNanos);
+			data.writeInt(entry.threadId);
+			data.writeInt(entry.subject);
+			data.writeInt(entry.detail);
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads events written by {@link #dump(OutputStream)}.
+	 *
+	 * @throws IOException if the stream does not contain a dump
+	 */
+	public static List<Entry> read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != FORMAT_MAGIC)
+			throw new IOException("Not an event log");
+		int version = data.readInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported event log version " + version);
+
+		int count = data.readInt();
+		if (count < 0)
+			throw new IOException("Corrupt event log");
+		List<Entry> entries = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			int type = data.readUnsignedByte();
+			if (type >= Type.VALUES.length)
+				throw new IOException("Unknown event type " + type);
+			entries.add(new Entry(Type.VALUES[type], data.readLong(), data.readInt(), data.readInt(), data.readInt()));
+		}
+		return entries;
+	}
+
+	/**
+	 * An event read back from a log.
+	 */
+	public static final class Entry {
+		private final Type type;
+		private final long timeNanos;
+		private final int threadId;
+		private final int subject;
+		private final int detail;
+
+		private Entry(Type type, long timeNanos, int threadId, int subject, int detail) {
+			this.type = type;
+			this.timeNanos = timeNanos;
+			this.threadId = threadId;
+			this.subject = subject;
+			this.detail = detail;
+		}
+
+		public Type type() {
+			return type;
+		}
+
+		/**
+		 * Returns the time of the event, as {@linkplain Instant#toNanos() Instant nanos}.
+		 */
+		public long timeNanos() {
+			return timeNanos;
+		}
+
+		/**
+		 * Returns the low 32 bits of the {@linkplain Thread#getId() id} of the thread that
+		 * recorded the event.
+		 */
+		public int threadId() {
+			return threadId;
+		}
+
+		public int subject() {
+			return subject;
+		}
+
+		public int detail() {
+			return detail;
+		}
+
+		@Override
+		public String toString() {
+			return timeNanos + " " + type + " thread=" + threadId + " subject=" + subject + " detail=" + detail;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.kuriosityrobotics.shuttle;
+
+/**
+ * Java Flight Recorder events for task scopes and locks.
+ * <p>
+ * Android, and desktop runtimes built without the {@code jdk.jfr} module, have no Flight
+ * Recorder, so it is looked up by name, and {@link ShuttleEvents}, which refers to it, is
+ * only loaded once it has been found.  Callers only take the timestamps an event needs
+ * while {@link #isEnabled()}, that is, while a recording that has the events enabled is
+ * running.
+ */
+final class FlightRecorderEvents {
+	private static final boolean PRESENT = isFlightRecorderPresent();
+	private static volatile boolean enabled; // kept up to date by ShuttleEvents
+
+	static {
+		if (PRESENT) {
+			try {
+				ShuttleEvents.trackRecordings();
+			} catch (RuntimeException | LinkageError e) {
+				// Flight Recorder cannot be used after all; record nothing
+			}
+		}
+	}
+
+	private FlightRecorderEvents() {}
+
+	private static boolean isFlightRecorderPresent() {
+		try {
+			Class.forName("jdk.jfr.Event", false, FlightRecorderEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns true if a running recording has any of the events enabled.
+	 */
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	static void setEnabled(boolean enabled) {
+		FlightRecorderEvents.enabled = enabled;
+	}
+
+	static void fork(String scope) {
+		if (enabled)
+			ShuttleEvents.fork(scope);
+	}
+
+	static void subtaskCompleted(String scope, StructuredTaskScope.Subtask.State state, long runNanos) {
+		if (enabled)
+			ShuttleEvents.subtaskCompleted(scope, state, runNanos);
+	}
+
+	static void join(String scope, long waitNanos) {
+		if (enabled)
+			ShuttleEvents.join(scope, waitNanos);
+	}
+
+	static void shutdown(String scope, int interruptedThreads, long fanOutNanos) {
+		if (enabled)
+			ShuttleEvents.shutdown(scope, interruptedThreads, fanOutNanos);
+	}
+
+	static void preemption(Thread holder, Thread preemptor, long handOffNanos) {
+		if (enabled)
+			ShuttleEvents.preemption(holder, preemptor, handOffNanos);
+	}
+}
@@ -3,6 +3,7 @@ package com.kuriosityrobotics.shuttle;
 import static com.kuriosityrobotics.shuttle.StructuredTaskScope.Subtask.State.FAILED;
 
 import java.util.Objects;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -12,33 +13,55 @@ import java.util.concurrent.atomic.AtomicReference;
  * in the main thread when {@link #join} is called.
  * <br>
  * This scope allows subtasks to throw {@link InterruptedException} as well as an additional exception {@code <E>}.
+ * <br>
+ * Subtasks run on pooled worker threads, {@link WorkerPool#common()} unless another pool is given,
+ * so forking does not create a new thread each time.  On Java 21+ scopes opened without a pool
+ * fork virtual threads instead.
+ * <br>
+ * A subtask that ends because it was cancelled, such as one whose {@link PreemptibleLock} was
+ * taken by another thread, is not a failure: it neither shuts the scope down nor makes
+ * {@link #join} throw.
  * @param <E> the exception thrown by the scope
  */
 public class HardwareTaskScope<E extends Exception> extends StructuredTaskScope<Object> {
 	// either E, InterruptedException, RuntimeException or Error
 	private final AtomicReference<Throwable> firstException = new AtomicReference<>();
 
-	private HardwareTaskScope() {}
+	private HardwareTaskScope(Configuration config) {
+		super(config);
+	}
 
 	@Override
 	protected void handleComplete(Subtask<?> subtask) {
 		super.handleComplete(subtask);
 
-		if (subtask.state() == FAILED) {
+		if (subtask.state() == FAILED && !isCancellation(subtask)) {
 			firstException.compareAndSet(null, subtask.exception());
 			shutdown();
 		}
 	}
 
+	/**
+	 * Returns true if the subtask failed because it was cancelled, for example by being
+	 * preempted, rather than because something went wrong.  A cancelled or preempted
+	 * subtask that was also interrupted may have thrown a plain {@link InterruptedException}.
+	 */
+	private static boolean isCancellation(Subtask<?> subtask) {
+		Throwable e = subtask.exception();
+		if (e instanceof CancelledException)
+			return true;
+		if (!(e instanceof InterruptedException) || !(subtask instanceof CancellationToken))
+			return false;
+		CancellationToken token = (CancellationToken) subtask;
+		return token.isCancelled() || token.hasLostHold();
+	}
+
 	public Subtask<Void> fork(HardwareTask<? extends E> task) {
-		return super.forkInner(() -> {
-			task.run();
-			return null;
-		});
+		return super.forkInner(task);
 	}
 
 	public <T> Subtask<T> fork(HardwareSupplier<T, ? extends E> task) {
-		return super.forkInner(task::supply);
+		return super.forkInner(task);
 	}
 
 	private void throwIfPresent(Throwable e) throws InterruptedException, E {
@@ -69,7 +92,15 @@ public class HardwareTaskScope<E extends Exception> extends StructuredTaskScope<
 	}
 
 	public HardwareTaskScope<E> joinUntil(Instant deadline) throws InterruptedException, TimeoutException, E {
-		super.joinUntilInner(deadline);
+		return joinUntil(deadline.toNanos());
+	}
+
+	/**
+	 * Like {@link #joinUntil(Instant)}, with the deadline given as {@linkplain Instant#toNanos()
+	 * Instant nanos}, such as {@code Instant.nowNanos() + timeout.toNanos()}.
+	 */
+	public HardwareTaskScope<E> joinUntil(long deadlineNanos) throws InterruptedException, TimeoutException, E {
+		super.joinUntilInner(deadlineNanos);
 
 		var e = firstException.get();
 		throwIfPresent(e);
@@ -78,19 +109,45 @@ public class HardwareTaskScope<E extends Exception> extends StructuredTaskScope<
 	}
 
 	public static HardwareTaskScope<InterruptedException> open() {
-		return new HardwareTaskScope<>();
+		return open(InterruptedException.class);
 	}
 
 	public static <E extends Exception> HardwareTaskScope<E> open(Class<E> clazz) {
+		return open(clazz, Configuration.defaults());
+	}
+
+	public static <E extends Exception> HardwareTaskScope<E> open(Class<E> clazz, WorkerPool pool) {
+		return open(clazz, Configuration.defaults().withWorkerPool(pool));
+	}
+
+	/**
+	 * Opens a scope with the given configuration.  If it names neither a thread factory nor
+	 * a worker pool, the scope forks onto {@link WorkerPool#common()}, or virtual threads on Java 21+.
+	 */
+	public static <E extends Exception> HardwareTaskScope<E> open(Class<E> clazz, Configuration config) {
 		Objects.requireNonNull(clazz);
-		return new HardwareTaskScope<>();
+		if (config.threadFactory() == null && config.workerPool() == null && !Platform.hasVirtualThreads())
+			config = config.withWorkerPool(WorkerPool.common());
+		return new HardwareTaskScope<>(config);
 	}
 
-	public interface HardwareTask<E extends Exception> {
+	// both are Callables themselves, so forking one does not wrap it in another object
+	public interface HardwareTask<E extends Exception> extends Callable<Void> {
 		void run() throws E, InterruptedException;
+
+		@Override
+		default Void call() throws Exception {
+			run();
+			return null;
+		}
 	}
 
-	public interface HardwareSupplier<T, E extends Exception> {
+	public interface HardwareSupplier<T, E extends Exception> extends Callable<T> {
 		T supply() throws E, InterruptedException;
+
+		@Override
+		default T call() throws Exception {
+			return supply();
+		}
 	}
 }
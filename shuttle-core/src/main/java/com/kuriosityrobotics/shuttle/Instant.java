@@ -11,7 +11,47 @@ public final class Instant implements Comparable<Instant> {
 	private final long nanos;
 
 	public static Instant now() {
-		return new Instant(START_TIME.nanos + System.nanoTime() - ELAPSED_NANOS_AT_START);
+		return new Instant(nowNanos());
+	}
+
+	/**
+	 * Returns the {@linkplain #toNanos() nanos} of {@link #now()}, without allocating an
+	 * Instant.  Together with {@link #nanosUntil(long)}, this lets control loops keep
+	 * deadlines as plain longs:
+	 * <pre>{@code
+	 *     long deadline = Instant.nowNanos() + timeout.toNanos();
+	 *     while (isBusy() && Instant.nanosUntil(deadline) > 0)
+	 *         ...
+	 * }</pre>
+	 */
+	public static long nowNanos() {
+		return START_TIME.nanos + Clock.current().nanoTime() - ELAPSED_NANOS_AT_START;
+	}
+
+	/**
+	 * Returns how many nanoseconds remain until the given deadline, which is negative once
+	 * it has passed.
+	 *
+	 * @param deadlineNanos the deadline, as {@linkplain #toNanos() Instant nanos}
+	 */
+	public static long nanosUntil(long deadlineNanos) {
+		return deadlineNanos - nowNanos();
+	}
+
+	/**
+	 * Converts {@linkplain #toNanos() Instant nanos} to a reading of the
+	 * {@linkplain Clock#nanoTime() clock} that {@link #nowNanos()} is read from, without
+	 * reading it again, so that a deadline compares against that clock's samples exactly.
+	 */
+	static long toClockNanos(long nanos) {
+		return nanos - START_TIME.nanos + ELAPSED_NANOS_AT_START;
+	}
+
+	/**
+	 * Returns the Instant with the given {@linkplain #toNanos() nanos}.
+	 */
+	public static Instant ofNanos(long nanos) {
+		return new Instant(nanos);
 	}
 
 	public static Instant ofEpochMillis(long millis) {
@@ -47,11 +87,13 @@ public final class Instant implements Comparable<Instant> {
 	}
 
 	public Instant add(Duration duration) {
-		return new Instant(nanos + duration.toNanos());
+		long offset = duration.toNanos();
+		return (offset == 0L) ? this : new Instant(nanos + offset);
 	}
 
 	public Instant subtract(Duration duration) {
-		return new Instant(nanos - duration.toNanos());
+		long offset = duration.toNanos();
+		return (offset == 0L) ? this : new Instant(nanos - offset);
 	}
 
 	public long toEpochMillis() {
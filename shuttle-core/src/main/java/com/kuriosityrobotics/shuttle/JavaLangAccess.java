@@ -8,12 +8,21 @@ interface JavaLangAccess {
 	ThreadContainer threadContainer(Thread thread);
 
 	/**
-	 * Starts a thread in the given ThreadContainer.
+	 * Starts a thread in the given ThreadContainer.  The container's onStart is invoked
+	 * on the current thread before the thread is started, and onExit if starting fails.
 	 */
 	void start(Thread thread, ThreadContainer container);
 
 	/**
-	 * Returns the top of the given thread's stackable scope stack.
+	 * Sets the ThreadContainer of an already started thread, such as a pooled worker
+	 * that moves between containers.  A null container removes the association.
+	 */
+	void setThreadContainer(Thread thread, ThreadContainer container);
+
+	/**
+	 * Returns the top of the given thread's stackable scope stack.  For a thread that is
+	 * not a ShuttleThread, this is only known when called from that thread; null is
+	 * returned otherwise.
 	 */
 	StackableScope headStackableScope(Thread thread);
 
@@ -22,4 +31,26 @@ interface JavaLangAccess {
 	 */
 	void setHeadStackableScope(StackableScope scope);
 
+	/**
+	 * Returns the cancellation token the given thread is running under, may be null.  For
+	 * a thread that is not a ShuttleThread, this is only known when called from that
+	 * thread; null is returned otherwise.
+	 */
+	CancellationToken cancellationToken(Thread thread);
+
+	/**
+	 * Sets the cancellation token of the current thread.  A null token removes it.
+	 */
+	void setCancellationToken(CancellationToken token);
+
+	/**
+	 * Returns the first of the current thread's spare lock holds, may be null.
+	 */
+	CancellationToken.Hold spareHolds();
+
+	/**
+	 * Sets the first of the current thread's spare lock holds.
+	 */
+	void setSpareHolds(CancellationToken.Hold holds);
+
 }
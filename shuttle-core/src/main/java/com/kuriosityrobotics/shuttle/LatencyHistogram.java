@@ -0,0 +1,125 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, in nanoseconds, that can be recorded into from any number of
+ * threads without locking.
+ * <p>
+ * Values are counted in buckets that are a quarter of a power of two wide, so every value
+ * is known to within 25%, from nanoseconds up to centuries.  The histogram never grows:
+ * all of its state is a single array of {@value #SLOTS} longs, updated with atomic adds.
+ * Reads are not atomic with respect to concurrent recording; a percentile may be computed
+ * from counts a few values apart.
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS; // up to Long.MAX_VALUE
+
+	// the buckets, followed by the count, sum and maximum of all recorded values
+	private static final int COUNT = BUCKETS;
+	private static final int SUM = BUCKETS + 1;
+	private static final int MAX = BUCKETS + 2;
+	private static final int SLOTS = BUCKETS + 3;
+
+	private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+
+	/**
+	 * Records a duration.  Negative durations are recorded as zero.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0L)
+			nanos = 0L;
+
+		slots.getAndIncrement(index(nanos));
+		slots.getAndIncrement(COUNT);
+		slots.getAndAdd(SUM, nanos);
+
+		long max;
+		while (nanos > (max = slots.get(MAX)) && !slots.compareAndSet(MAX, max, nanos))
+			;
+	}
+
+	/**
+	 * Records the time elapsed since the given {@link System#nanoTime()} reading.
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value that falls into the given bucket.
+	 */
+	private static long highestValue(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		long lowest = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Returns the number of values recorded.
+	 */
+	public long count() {
+		return slots.get(COUNT);
+	}
+
+	/**
+	 * Returns the largest value recorded, or 0 if none were.
+	 */
+	public long max() {
+		return slots.get(MAX);
+	}
+
+	/**
+	 * Returns the mean of the values recorded, or 0 if none were.
+	 */
+	public double mean() {
+		long count = count();
+		return (count == 0) ? 0.0 : (double) slots.get(SUM) / count;
+	}
+
+	/**
+	 * Returns a value that the given fraction of the recorded values are less than or
+	 * equal to, to within the histogram's precision, or 0 if nothing was recorded.
+	 *
+	 * @param fraction between 0 and 1, such as 0.99 for the 99th percentile
+	 */
+	public long percentile(double fraction) {
+		if (!(fraction >= 0.0 && fraction <= 1.0))
+			throw new IllegalArgumentException("'fraction' must be between 0 and 1");
+
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+			total += counts[i] = slots.get(i);
+		if (total == 0)
+			return 0L;
+
+		long rank = Math.max(1L, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(highestValue(i), max());
+		}
+		return max();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus",
+				count(), mean() / 1e3, percentile(0.5) / 1e3, percentile(0.99) / 1e3, max() / 1e3);
+	}
+}
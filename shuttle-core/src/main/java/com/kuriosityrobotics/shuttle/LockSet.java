@@ -0,0 +1,171 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A set of {@link PreemptibleLock}s that are taken and released together, for routines that
+ * coordinate several mechanisms.
+ * <p>
+ * Acquiring the set first preempts the holders of all its locks at once (where the
+ * priority allows), so that they can all wind down in parallel.  It then takes the locks
+ * one by one in a global order that is the same for every set.  Two routines that want
+ * overlapping sets therefore never end up each holding part of what the other needs.  If
+ * an acquisition is interrupted or times out, the locks taken so far are released again.
+ * <p>
+ * Unlocking releases every lock in the set, in reverse order.
+ */
+public final class LockSet implements Lock {
+	private final PreemptibleLock[] locks; // in the global acquisition order, without duplicates
+
+	private LockSet(PreemptibleLock[] locks) {
+		this.locks = locks;
+	}
+
+	/**
+	 * @return a set of the given locks; duplicates are ignored
+	 */
+	public static LockSet of(PreemptibleLock... locks) {
+		PreemptibleLock[] sorted = locks.clone();
+		for (PreemptibleLock lock : sorted)
+			Objects.requireNonNull(lock);
+		Arrays.sort(sorted, Comparator.comparingLong(lock -> lock.id));
+
+		int size = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (size == 0 || sorted[size - 1] != sorted[i])
+				sorted[size++] = sorted[i];
+		}
+		return new LockSet(Arrays.copyOf(sorted, size));
+	}
+
+	/**
+	 * @return true if acquired, false if timed out
+	 */
+	private boolean acquire(int priority, boolean interruptible, boolean timed, long nanos) throws InterruptedException {
+		if (interruptible && Thread.interrupted())
+			throw new InterruptedException();
+
+		final Clock clock = Clock.current();
+		final long deadline = timed ? clock.nanoTime() + nanos : 0L;
+		final Thread[] preempted = new Thread[locks.length];
+		for (int i = 0; i < locks.length; i++)
+			preempted[i] = locks[i].preemptHolder(priority);
+
+		int acquired = 0;
+		try {
+			for (; acquired < locks.length; acquired++) {
+				long remaining = timed ? Math.max(0L, deadline - clock.nanoTime()) : 0L;
+				if (!locks[acquired].acquire(priority, interruptible, timed, remaining, preempted[acquired]))
+					return false;
+			}
+			return true;
+		} finally {
+			if (acquired < locks.length)
+				release(acquired);
+		}
+	}
+
+	/**
+	 * Releases the first {@code count} locks, in reverse order.
+	 */
+	private void release(int count) {
+		Throwable failure = null;
+		for (int i = count - 1; i >= 0; i--) {
+			try {
+				locks[i].unlock();
+			} catch (Throwable e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+	}
+
+	@Override
+	public void lock() {
+		lockWithPriority(PreemptibleLock.DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * @see PreemptibleLock#lockWithPriority(int)
+	 */
+	public void lockWithPriority(int priority) {
+		try {
+			acquire(priority, false, false, 0L);
+		} catch (InterruptedException e) {
+			throw new InternalError(e); // not thrown when uninterruptible
+		}
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		lockInterruptiblyWithPriority(PreemptibleLock.DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * @see PreemptibleLock#lockInterruptiblyWithPriority(int)
+	 */
+	public void lockInterruptiblyWithPriority(int priority) throws InterruptedException {
+		acquire(priority, true, false, 0L);
+	}
+
+	/**
+	 * Takes every lock in the set if none of them is held by another thread or has waiters.
+	 * This method does not preempt (interrupt) anybody.
+	 */
+	@Override
+	public boolean tryLock() {
+		int acquired = 0;
+		try {
+			while (acquired < locks.length && locks[acquired].tryLock())
+				acquired++;
+			return acquired == locks.length;
+		} finally {
+			if (acquired < locks.length)
+				release(acquired);
+		}
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+		return tryLock(PreemptibleLock.DEFAULT_PRIORITY, time, unit);
+	}
+
+	/**
+	 * Tries to take every lock in the set within the given time.
+	 *
+	 * @see PreemptibleLock#tryLock(int, long, TimeUnit)
+	 */
+	public boolean tryLock(int priority, long time, TimeUnit unit) throws InterruptedException {
+		return acquire(priority, true, true, unit.toNanos(time));
+	}
+
+	/**
+	 * Releases every lock in the set.
+	 *
+	 * @throws IllegalMonitorStateException if the current thread does not hold them
+	 */
+	@Override
+	public void unlock() {
+		release(locks.length);
+	}
+
+	@Override
+	public Condition newCondition() {
+		throw new UnsupportedOperationException("Conditions are not supported");
+	}
+
+	@Override
+	public String toString() {
+		return Util.toIdentityString(this) + Arrays.toString(locks);
+	}
+}
@@ -0,0 +1,28 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Defaults that depend on the Java runtime.
+ * <p>
+ * shuttle-core is a multi-release jar.  This is the version used on Java 11 and Android;
+ * runtimes with virtual threads load the version in {@code src/main/java21} instead.
+ */
+final class Platform {
+	private Platform() {}
+
+	/**
+	 * Returns the thread factory used by task scopes that are not given one.
+	 */
+	static ThreadFactory defaultThreadFactory() {
+		return ShuttleThread::new; // virtual threads don't exist in java 11
+	}
+
+	/**
+	 * Returns true if the default thread factory creates virtual threads, which are
+	 * cheap enough that pooling them is pointless.
+	 */
+	static boolean hasVirtualThreads() {
+		return false;
+	}
+}
@@ -0,0 +1,251 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits for conditions on hardware, such as a motor no longer being busy, by checking all
+ * of them together once per hardware cycle.
+ * <p>
+ * When every mechanism polls from its own thread, each waiting thread wakes up every cycle
+ * to make its own hardware read.  A hub instead lets one waiting thread, the poller, check
+ * every registered condition once per {@linkplain #period() period}, and unparks exactly
+ * the waiters whose condition has become true; the others sleep through.  A condition
+ * that several threads wait on, passed as the same object, is checked once per cycle.
+ * When the poller's own wait ends, another waiter takes over polling, so a hub has no
+ * thread of its own and nothing to shut down.
+ * <p>
+ * Conditions are checked on the poller's thread, so they must be thread-safe and quick,
+ * like a single sensor read.  A condition that throws ends only the waits on it, with
+ * its exception.
+ */
+public final class PollingHub {
+	private static final PollingHub SHARED = new PollingHub(Duration.ofMillis(30));
+
+	private final long periodNanos;
+
+	// guarded by this
+	private final List<Waiter> waiters = new ArrayList<>();
+	private volatile Waiter poller; // written while holding this
+
+	// only used by the poller, and handed over by writing it before poller
+	private long nextPollNanos; // read from the poller's clock
+	private Waiter[] snapshot = new Waiter[8]; // reused, so that polling allocates nothing
+	private boolean[] results = new boolean[8];
+
+	/**
+	 * Creates a hub that checks its conditions once per the given period, typically the
+	 * time one loop of hardware reads takes.
+	 */
+	public PollingHub(Duration period) {
+		this.periodNanos = period.toNanos();
+		if (periodNanos <= 0)
+			throw new IllegalArgumentException("'period' must be positive");
+	}
+
+	/**
+	 * Returns the hub the library's mechanisms wait on by default, which polls every 30ms.
+	 */
+	public static PollingHub shared() {
+		return SHARED;
+	}
+
+	public Duration period() {
+		return Duration.ofNanos(periodNanos);
+	}
+
+	/**
+	 * Waits until the given condition is true.  The condition is checked once straight
+	 * away, on the current thread, and from then on by the hub.
+	 *
+	 * @throws CancelledException if the current {@link CancellationToken} was cancelled
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public void await(BooleanSupplier condition) throws InterruptedException {
+		await(condition, false, false, 0L);
+	}
+
+	/**
+	 * Waits until the given condition is true, or the deadline passes.  The condition is
+	 * checked once straight away, on the current thread, from then on by the hub, and
+	 * once more when the deadline passes.
+	 *
+	 * @param deadlineNanos the deadline, as {@linkplain Instant#toNanos() Instant nanos}
+	 * @return true if the condition became true, false if the deadline passed first
+	 * @throws CancelledException if the current {@link CancellationToken} was cancelled
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public boolean awaitUntil(BooleanSupplier condition, long deadlineNanos) throws InterruptedException {
+		return await(condition, true, false, Instant.toClockNanos(deadlineNanos));
+	}
+
+	/**
+	 * Waits until the given condition is true, or the given number of nanoseconds has
+	 * passed, like {@link #awaitUntil(BooleanSupplier, long)}.  The timeout is measured on
+	 * the clock the wait runs on, which is read only once to set the deadline.
+	 *
+	 * @return true if the condition became true, false if the time passed first
+	 * @throws CancelledException if the current {@link CancellationToken} was cancelled
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	public boolean awaitNanos(BooleanSupplier condition, long nanos) throws InterruptedException {
+		return await(condition, true, true, nanos);
+	}
+
+	/**
+	 * @param time a relative timeout if {@code relative}, otherwise a deadline in clock nanos
+	 */
+	private boolean await(BooleanSupplier condition, boolean timed, boolean relative, long time) throws InterruptedException {
+		Objects.requireNonNull(condition);
+		Clock clock = Clock.current();
+		final long deadline = !timed ? 0L : relative ? clock.nanoTime() + time : time;
+
+		CancellationToken token = CancellationToken.current();
+		token.checkCancelledOrInterrupted();
+		if (condition.getAsBoolean())
+			return true;
+
+		Waiter waiter = new Waiter(Thread.currentThread(), condition, clock);
+		synchronized (this) {
+			waiters.add(waiter);
+			if (poller == null) {
+				poller = waiter;
+				nextPollNanos = clock.nanoTime() + periodNanos;
+			}
+		}
+
+		CancellationToken.Registration registration = token.unparkOnCancel(clock, waiter.thread);
+		try {
+			while (true) {
+				if (waiter.satisfied)
+					return true;
+				Throwable failure = waiter.failure;
+				if (failure instanceof RuntimeException)
+					throw (RuntimeException) failure;
+				if (failure != null)
+					throw (Error) failure;
+				token.checkCancelledOrInterrupted();
+
+				long now = clock.nanoTime();
+				long remaining = timed ? deadline - now : Long.MAX_VALUE;
+				if (remaining <= 0)
+					return condition.getAsBoolean(); // one last look
+
+				if (poller == waiter) {
+					long untilPoll = nextPollNanos - now;
+					if (untilPoll <= 0) {
+						poll();
+						// keep to the cadence, unless polling fell more than a period behind
+						nextPollNanos = (untilPoll > -periodNanos) ? nextPollNanos + periodNanos : now + periodNanos;
+					} else {
+						clock.parkNanos(this, Math.min(untilPoll, remaining));
+					}
+				} else if (timed) {
+					clock.parkNanos(this, remaining);
+				} else {
+					clock.park(this);
+				}
+			}
+		} finally {
+			if (registration != null)
+				registration.close();
+			leave(waiter);
+		}
+	}
+
+	/**
+	 * Removes a waiter whose wait has ended, handing polling over to the longest-waiting
+	 * thread if it was the poller.
+	 */
+	private void leave(Waiter waiter) {
+		Waiter next = null;
+		synchronized (this) {
+			waiters.remove(waiter);
+			if (poller == waiter) {
+				next = waiters.isEmpty() ? null : waiters.get(0);
+				// the cadence was kept on this waiter's clock; a waiter on another clock restarts it
+				if (next != null && next.clock != waiter.clock)
+					nextPollNanos = next.clock.nanoTime() + periodNanos;
+				poller = next; // after the cadence, which the next poller reads once it sees this
+			}
+		}
+		if (next != null)
+			next.clock.unpark(next.thread);
+	}
+
+	/**
+	 * Checks every waiter's condition once, and unparks the waiters whose condition is
+	 * true.  Only called by the poller.
+	 */
+	private void poll() {
+		int count;
+		synchronized (this) {
+			count = waiters.size();
+			if (snapshot.length < count) {
+				snapshot = new Waiter[Integer.highestOneBit(count) << 1];
+				results = new boolean[snapshot.length];
+			}
+			for (int i = 0; i < count; i++)
+				snapshot[i] = waiters.get(i);
+		}
+
+		Thread current = Thread.currentThread();
+		for (int i = 0; i < count; i++) {
+			Waiter waiter = snapshot[i];
+			int same = indexOfCondition(waiter.condition, i);
+			boolean result;
+			if (same >= 0 && snapshot[same].failure == null) {
+				result = results[same];
+			} else {
+				try {
+					result = waiter.condition.getAsBoolean();
+				} catch (RuntimeException | Error e) {
+					result = false;
+					waiter.failure = e;
+					if (waiter.thread != current)
+						waiter.clock.unpark(waiter.thread);
+				}
+			}
+			results[i] = result;
+
+			if (result) {
+				waiter.satisfied = true;
+				if (waiter.thread != current)
+					waiter.clock.unpark(waiter.thread);
+			}
+		}
+
+		for (int i = 0; i < count; i++)
+			snapshot[i] = null; // don't keep finished waiters reachable
+	}
+
+	// the index of an earlier waiter in the snapshot with the same condition, or -1
+	private int indexOfCondition(BooleanSupplier condition, int end) {
+		for (int i = 0; i < end; i++) {
+			if (snapshot[i].condition == condition)
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return "PollingHub[period=" + (periodNanos / 1_000_000L) + "ms]";
+	}
+
+	private static final class Waiter {
+		final Thread thread;
+		final BooleanSupplier condition;
+		final Clock clock;
+		volatile boolean satisfied;
+		volatile Throwable failure;
+
+		Waiter(Thread thread, BooleanSupplier condition, Clock clock) {
+			this.thread = thread;
+			this.condition = condition;
+			this.clock = clock;
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package com.kuriosityrobotics.shuttle;
+
+/**
+ * Thrown when work stops because a {@link PreemptibleLock} it held was taken by another
+ * thread, which cancelled its {@link CancellationToken}.
+ */
+public class PreemptedException extends CancelledException {
+	public PreemptedException() {
+		super("Preempted");
+	}
+}
@@ -1,136 +1,538 @@
 package com.kuriosityrobotics.shuttle;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A lock that can be preempted by another thread.
- * If a lock is 'preempted', the holder of the lock will be interrupted.
+ * If a lock is 'preempted', the {@linkplain CancellationToken cancellation token} the holder
+ * runs under while it holds the lock is cancelled, and the holder is interrupted unless the
+ * lock was created not to interrupt holders.  That token is a child of the one the holder
+ * was running under when it took the lock, and goes away when it releases the lock: a
+ * subtask that loses a lock can release it and carry on.  A holder that is not running
+ * under a token, such as a thread that is not a subtask, can only be preempted by
+ * interrupting it.
+ * <p>
+ * Every acquisition has a priority, {@link #DEFAULT_PRIORITY} unless given.  A thread
+ * only preempts holders of lower or equal priority, so a routine task cannot take a lock
+ * away from a critical one; it waits for it instead.  Waiting threads are queued by
+ * priority, highest first, and in arrival order within a priority.  A reentrant
+ * acquisition at a higher priority raises the holder's priority only until it is
+ * released again.
+ * <p>
+ * The owner field is the lock's state: uncontended and reentrant acquisition and release
+ * only read or CAS it.  Threads that find the lock held wait in the queue, and the first
+ * of them preempts each new owner once, if its priority allows.
+ * <p>
+ * When the lock is released while threads are waiting, ownership is handed directly to
+ * the first waiter, and only that thread is woken.  If another thread of the same priority
+ * is waiting behind it, the new owner is preempted as part of the handoff.
+ * <p>
+ * To take several locks at once without deadlocking, use a {@link LockSet}.
+ * <p>
+ * Conditions created by {@link #newCondition()} release the lock completely while
+ * awaiting.  A thread awaiting a condition holds nothing, so it is never preempted; taking
+ * the lock to signal it is the usual {@code lock(); signal(); unlock();}.  Once signalled,
+ * it gets the lock back at the priority it held it with.  Signals may also be sent without
+ * holding the lock.
  */
 public class PreemptibleLock implements Lock {
-	private final ReentrantLock outerLock; // waiters queue in order to lock; nothing else interferes
-	private final ReentrantLock acquisitionLock = new ReentrantLock(); // minimally held by owner when unlocking, or waiter when locking
-	private final Condition acquisitionCondition = acquisitionLock.newCondition();
-	private Thread owner = null; // guarded by acquisitionLock
-	private int holdCount = 0; // guarded by acquisitionLock
+	/**
+	 * The priority of acquisitions that do not specify one.
+	 */
+	public static final int DEFAULT_PRIORITY = 0;
+
+	private static final int UNKNOWN_PRIORITY = Integer.MAX_VALUE; // an owner that is yet to publish its priority
+
+	private static final AtomicReferenceFieldUpdater<PreemptibleLock, Thread> OWNER =
+			AtomicReferenceFieldUpdater.newUpdater(PreemptibleLock.class, Thread.class, "owner");
+	private static final AtomicIntegerFieldUpdater<PreemptibleLock> PREEMPTING =
+			AtomicIntegerFieldUpdater.newUpdater(PreemptibleLock.class, "preempting");
+
+	private static final AtomicLong NEXT_ID = new AtomicLong();
+
+	final long id = NEXT_ID.getAndIncrement(); // the order in which a LockSet takes its locks
+	private final boolean fair; // if true, a free lock is not taken while there are waiters
+	private final boolean interruptHolders; // if false, preemption only cancels tokens
+
+	private volatile Thread owner; // set by CAS from null, or handed over by the owner
+	private volatile int ownerPriority = UNKNOWN_PRIORITY; // written by the owner, or by the thread handing over
+	private volatile CancellationToken.Hold ownerHold; // what preempting the owner cancels; written before ownerPriority
+	private int holdCount; // only accessed by the owner
+
+	// for each reentrant acquisition that raised ownerPriority, the hold count it was made
+	// at and the priority before it, in pairs; only accessed by the owner
+	private int[] raisedFrom;
+	private int raised; // the number of pairs in raisedFrom
+
+	private final ReentrantLock queueLock = new ReentrantLock(); // only taken on the slow path
+	private volatile Waiter head; // first waiter, the one that preempts; the queue is written under queueLock
+
+	// the number of threads interrupting the owner, so that an interrupt aimed at an
+	// owner always lands before that owner's unlock() returns
+	private volatile int preempting;
 
 	public PreemptibleLock() {
-		outerLock = new ReentrantLock(); // non-fair by default
+		this(false); // non-fair by default
 	}
 
 	public PreemptibleLock(boolean fair) {
-		outerLock = new ReentrantLock(fair);
+		this(fair, true);
+	}
+
+	/**
+	 * @param fair             if true, a free lock is not taken while other threads wait for it
+	 * @param interruptHolders if false, preempting a holder only cancels its cancellation token
+	 *                         instead of interrupting it as well
+	 */
+	public PreemptibleLock(boolean fair, boolean interruptHolders) {
+		this.fair = fair;
+		this.interruptHolders = interruptHolders;
 	}
 
 	/**
 	 * @return an estimate of whether the lock is locked.
 	 */
 	public boolean isLocked() {
-		acquisitionLock.lock();
-		try {
-			return owner != null;
-		} finally {
-			acquisitionLock.unlock();
-		}
+		return owner != null;
 	}
 
 	@Override
 	public void unlock() {
-		acquisitionLock.lock();
-		try {
-			ensureOwner();
+		if (owner != Thread.currentThread())
+			throw new IllegalMonitorStateException("Calling thread does not hold the lock");
+
+		if (raised > 0 && raisedFrom[2 * raised - 2] == holdCount) {
+			ownerPriority = raisedFrom[2 * --raised + 1];
+
+			// the first waiter may be able to preempt the owner now
+			Waiter first = head;
+			if (first != null)
+				Clock.current().unpark(first.thread);
+		}
 
-			if (--holdCount == 0) {
+		if (--holdCount == 0) {
+			ownerPriority = UNKNOWN_PRIORITY;
+			CancellationToken.Hold hold = ownerHold;
+			if (hold != null) {
+				ownerHold = null;
+				hold.release();
+			}
+			if (head == null) {
 				owner = null;
-				acquisitionCondition.signalAll();
+
+				// a thread that queued meanwhile may have missed the release
+				Waiter first = head;
+				if (first != null)
+					Clock.current().unpark(first.thread);
+			} else {
+				handOff();
 			}
-		} finally {
-			acquisitionLock.unlock();
+
+			while (preempting != 0)
+				Thread.yield();
 		}
 	}
 
 	/**
-	 * @return whether the attempt was reentrant
+	 * Transfers ownership to the first waiter and wakes it up.  If the waiter behind it has
+	 * the same priority, it becomes first and has the new owner preempted straight away.
 	 */
-	private boolean handleReentrantLock() {
-		acquisitionLock.lock();
+	private void handOff() {
+		Waiter first;
+		boolean preempt;
+		CancellationToken.Hold hold;
+		int generation = 0;
+		queueLock.lock();
 		try {
-			if (owner == Thread.currentThread()) {
-				holdCount++;
-				return true;
+			first = head;
+			if (first == null) { // the waiters gave up
+				owner = null;
+				return;
 			}
-			return false;
+
+			Waiter next = first.next;
+			first.next = null;
+			preempt = (next != null && next.priority >= first.priority);
+			if (preempt) {
+				next.preempted = first.thread;
+				if (FlightRecorderEvents.isEnabled())
+					next.preemptedNanos = System.nanoTime();
+			}
+			head = next;
+
+			hold = first.hold;
+			owner = first.thread;
+			ownerHold = hold;
+			ownerPriority = first.priority;
+			if (preempt) {
+				if (hold != null)
+					generation = hold.generation();
+				else
+					signalPreempted(first.thread, null, 0);
+			}
+			first.granted = true; // after any interrupt, so it lands before the new owner's unlock()
 		} finally {
-			acquisitionLock.unlock();
+			queueLock.unlock();
 		}
+
+		// cancelling the hold runs its callbacks, so not under queueLock
+		if (preempt && hold != null)
+			signalPreempted(first.thread, hold, generation);
+		Clock.current().unpark(first.thread);
 	}
 
-	/** Guarded by acquisitionLock */
-	private void ensureOwner() {
-		if (owner != Thread.currentThread())
-			throw new IllegalMonitorStateException("Calling thread does not hold the lock");
+	/**
+	 * Acquires the lock if the current thread already holds it, or if it is free
+	 * (and, for a fair lock, nobody is waiting for it).
+	 */
+	private boolean tryAcquireFast(boolean barge, int priority) {
+		Thread current = Thread.currentThread();
+		Thread owner = this.owner;
+		if (owner == current) {
+			holdCount++;
+			int previous = ownerPriority;
+			if (priority > previous) {
+				saveRaisedPriority(previous);
+				ownerPriority = priority;
+			}
+			return true;
+		}
+
+		if (owner == null && (barge || head == null) && OWNER.compareAndSet(this, null, current)) {
+			holdCount = 1;
+			CancellationToken.Hold hold = CancellationToken.Hold.take(CancellationToken.currentOrNull());
+			if (hold != null)
+				ownerHold = hold;
+			ownerPriority = priority;
+			if (hold != null)
+				hold.enter();
+
+			// the first waiter may have seen this thread own the lock before its priority
+			// was known; let it decide again whether to preempt
+			Waiter first = head;
+			if (first != null)
+				Clock.current().unpark(first.thread);
+			return true;
+		}
+		return false;
 	}
 
-	@Override
-	public void lock() {
-		if (handleReentrantLock())
-			return;
+	/**
+	 * Records that the reentrant acquisition just made raised the owner's priority from
+	 * the given one, to be restored when it is released.
+	 */
+	private void saveRaisedPriority(int previous) {
+		int[] stack = raisedFrom;
+		if (stack == null)
+			raisedFrom = stack = new int[4];
+		else if (stack.length == 2 * raised)
+			raisedFrom = stack = Arrays.copyOf(stack, stack.length * 2);
+		stack[2 * raised] = holdCount;
+		stack[2 * raised + 1] = previous;
+		raised++;
+	}
 
-		outerLock.lock();
+	/**
+	 * Waits in the queue until the lock is acquired, either by being handed the lock or,
+	 * when it is free, by taking it.  While first in the queue, this thread preempts every
+	 * thread that owns the lock at a lower or equal priority, once.
+	 *
+	 * @return true if acquired, false if timed out
+	 */
+	private boolean acquireQueued(int priority, boolean interruptible, boolean timed, long nanos, Thread preempted) throws InterruptedException {
+		final long deadline = timed ? Clock.current().nanoTime() + nanos : 0L;
+		final Thread current = Thread.currentThread();
+
+		// interruptible waits also end when the current thread's token is cancelled
+		final CancellationToken outer = CancellationToken.currentOrNull();
+		final CancellationToken token = interruptible ? outer : null;
+		if (token != null)
+			token.throwIfCancelled();
+
+		final Waiter node = new Waiter(current, priority, outer);
+		node.preempted = preempted;
+		queueLock.lock();
 		try {
-			acquisitionLock.lock();
-			try {
-				if (owner != null) {
-					owner.interrupt();
+			enqueue(node);
+		} finally {
+			queueLock.unlock();
+		}
+
+		boolean acquired = false;
+		CancellationToken.Registration registration =
+				(token != null) ? token.onCancel(() -> Clock.current().unpark(current)) : null;
+		try {
+			acquired = awaitQueued(node, interruptible, timed, deadline, token);
+			return acquired;
+		} finally {
+			if (registration != null)
+				registration.close();
+			if (!acquired && node.hold != null)
+				node.hold.release(); // never published, so it can be reused
+		}
+	}
 
-					do
-						acquisitionCondition.awaitUninterruptibly();
-					while (owner != null);
+	/**
+	 * Waits until the current thread's node, already in the queue, is handed the lock or
+	 * can take it.  An interruptible wait also gives up when the given token, if any, is
+	 * cancelled.
+	 *
+	 * @return true if acquired, false if timed out
+	 */
+	private boolean awaitQueued(Waiter node, boolean interruptible, boolean timed, long deadline, CancellationToken token) throws InterruptedException {
+		final Thread current = node.thread;
+		final int priority = node.priority;
+		final Clock clock = timed ? Clock.current() : null;
+
+		boolean interrupted = false;
+		try {
+			while (!node.granted) {
+				if (head == node) {
+					Thread owner = this.owner;
+					if (owner == null) {
+						if (OWNER.compareAndSet(this, null, current)) {
+							ownerHold = node.hold;
+							ownerPriority = priority;
+							dequeue(node);
+							break;
+						}
+						continue;
+					}
+
+					if (owner != node.preempted && preempt(owner, priority)) {
+						node.preempted = owner;
+						if (FlightRecorderEvents.isEnabled())
+							node.preemptedNanos = System.nanoTime();
+						// the hold's callbacks ran on this thread and may have used up the
+						// unpark of a hand-off meanwhile, so look again before parking
+						continue;
+					}
 				}
 
-				// acquired
-				owner = Thread.currentThread();
-				holdCount = 1;
-			} finally {
-				acquisitionLock.unlock();
+				if (timed) {
+					long remaining = deadline - clock.nanoTime();
+					if (remaining <= 0L) {
+						if (dequeue(node))
+							return false;
+						break; // handed the lock just in time
+					}
+					clock.parkNanos(this, remaining);
+				} else {
+					Clock.current().park(this);
+				}
+
+				if (Thread.interrupted()) {
+					interrupted = true;
+					if (interruptible && dequeue(node)) {
+						interrupted = false;
+						if (token != null)
+							token.throwIfCancelled(); // interrupted because it was preempted
+						throw new InterruptedException();
+					}
+				}
+				if (token != null && token.isCancelled() && dequeue(node))
+					token.throwIfCancelled();
 			}
+
+			holdCount = 1;
+			CancellationToken.Hold hold = ownerHold;
+			if (hold != null)
+				hold.enter();
+			if (FlightRecorderEvents.isEnabled() && node.preemptedNanos != 0L)
+				FlightRecorderEvents.preemption(node.preempted, current, System.nanoTime() - node.preemptedNanos);
+			return true;
 		} finally {
-			outerLock.unlock();
+			if (interrupted)
+				current.interrupt();
 		}
 	}
 
-	@Override
-	public void lockInterruptibly() throws InterruptedException {
-		if (Thread.interrupted())
-			throw new InterruptedException();
+	/**
+	 * Preempts the given thread if it still owns the lock, at a priority no higher than
+	 * the given one.
+	 *
+	 * @return true if the thread was preempted
+	 */
+	private boolean preempt(Thread holder, int priority) {
+		CancellationToken.Hold hold;
+		int generation;
+		PREEMPTING.incrementAndGet(this);
+		try {
+			int holderPriority = ownerPriority;
+			hold = ownerHold; // after the priority, which is written after it
+			generation = (hold != null) ? hold.generation() : 0;
+			// the holder clears ownerHold before releasing the hold, so the generation read
+			// is that of the ownership checked here
+			if (owner != holder || ownerHold != hold || holderPriority == UNKNOWN_PRIORITY || holderPriority > priority)
+				return false;
 
-		if (handleReentrantLock())
-			return;
+			if (hold == null) {
+				signalPreempted(holder, null, 0);
+				return true;
+			}
+		} finally {
+			PREEMPTING.decrementAndGet(this);
+		}
 
-		outerLock.lockInterruptibly();
-		try {
-			acquisitionLock.lockInterruptibly();
-			try {
-				if (owner != null) {
-					owner.interrupt();
+		// cancelling the hold runs its callbacks, so not in the window unlock() waits for
+		signalPreempted(holder, hold, generation);
+		return true;
+	}
 
-					do
-						acquisitionCondition.await();
-					while (owner != null);
-				}
+	/**
+	 * Preempts the given thread: cancels its hold, if it has one and has not released it
+	 * since the given generation, and, unless disabled, interrupts it.  A thread without
+	 * a hold must be signalled while it cannot release the lock, so that the interrupt
+	 * lands before its unlock() returns; with a hold, the generation sees to that.
+	 */
+	void signalPreempted(Thread thread, CancellationToken.Hold hold, int generation) {
+		EventLog.shared().record(EventLog.Type.PREEMPT, (int) id, (int) thread.getId());
+		if (hold != null)
+			CancellationToken.preempt(hold, generation, interruptHolders ? thread : null);
+		else if (interruptHolders)
+			thread.interrupt();
+	}
 
-				// acquired
-				owner = Thread.currentThread();
-				holdCount = 1;
-			} finally {
-				acquisitionLock.unlock();
+	/**
+	 * Preempts the thread holding the lock, if its priority allows, without waiting for
+	 * the lock.
+	 *
+	 * @return the thread that was preempted, or null
+	 */
+	Thread preemptHolder(int priority) {
+		Thread holder = owner;
+		if (holder == null || holder == Thread.currentThread())
+			return null;
+		return preempt(holder, priority) ? holder : null;
+	}
+
+	/**
+	 * Inserts the node behind every waiter of higher or equal priority.  Must be called
+	 * with queueLock held.
+	 */
+	private void enqueue(Waiter node) {
+		Waiter previous = null;
+		Waiter w = head;
+		while (w != null && w.priority >= node.priority) {
+			previous = w;
+			w = w.next;
+		}
+
+		node.next = w;
+		if (previous == null) {
+			head = node; // the waiter it displaces stays parked; this one preempts now
+		} else {
+			previous.next = node;
+		}
+	}
+
+	/**
+	 * Removes the node from the queue.  If it was first, the next waiter is woken up to
+	 * take its place (and preempt whoever owns the lock now).
+	 *
+	 * @return false if the node had already been removed because it was handed the lock
+	 */
+	private boolean dequeue(Waiter node) {
+		Waiter next = null;
+		queueLock.lock();
+		try {
+			Waiter previous = null;
+			Waiter w = head;
+			while (w != node) {
+				if (w == null)
+					return false;
+				previous = w;
+				w = w.next;
+			}
+
+			if (previous == null) {
+				head = next = node.next;
+			} else {
+				previous.next = node.next;
 			}
+			node.next = null;
 		} finally {
-			outerLock.unlock();
+			queueLock.unlock();
 		}
+
+		if (next != null)
+			Clock.current().unpark(next.thread);
+		return true;
+	}
+
+	private static void checkPriority(int priority) {
+		if (priority == UNKNOWN_PRIORITY)
+			throw new IllegalArgumentException("Priority must be less than Integer.MAX_VALUE");
+	}
+
+	/**
+	 * Acquires the lock.  The queued acquisition does not preempt the given thread again,
+	 * if it was already preempted by the caller.
+	 *
+	 * @return true if acquired, false if timed out
+	 */
+	boolean acquire(int priority, boolean interruptible, boolean timed, long nanos, Thread preempted) throws InterruptedException {
+		checkPriority(priority);
+		if (interruptible && Thread.interrupted())
+			throw new InterruptedException();
+
+		return tryAcquireFast(!fair, priority) || acquireQueued(priority, interruptible, timed, nanos, preempted);
+	}
+
+	/**
+	 * Takes all the given locks, preempting their holders together.
+	 *
+	 * @return the set of locks, now held by the current thread
+	 * @throws InterruptedException if the current thread is interrupted, in which case no
+	 *                              lock is held
+	 * @see LockSet
+	 */
+	public static LockSet lockAll(PreemptibleLock... locks) throws InterruptedException {
+		LockSet set = LockSet.of(locks);
+		set.lockInterruptibly();
+		return set;
+	}
+
+	@Override
+	public void lock() {
+		lockWithPriority(DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Acquires the lock, preempting (interrupting) any holder of lower or equal priority.
+	 * Holders of higher priority are waited for.
+	 *
+	 * @param priority the priority of this acquisition; higher values take precedence
+	 */
+	public void lockWithPriority(int priority) {
+		try {
+			acquire(priority, false, false, 0L, null);
+		} catch (InterruptedException e) {
+			throw new InternalError(e); // not thrown when uninterruptible
+		}
+	}
+
+	@Override
+	public void lockInterruptibly() throws InterruptedException {
+		lockInterruptiblyWithPriority(DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Acquires the lock unless the current thread is interrupted, preempting (interrupting)
+	 * any holder of lower or equal priority.  Holders of higher priority are waited for.
+	 *
+	 * @param priority the priority of this acquisition; higher values take precedence
+	 */
+	public void lockInterruptiblyWithPriority(int priority) throws InterruptedException {
+		acquire(priority, true, false, 0L, null);
 	}
 
 	/**
@@ -142,26 +544,7 @@ public class PreemptibleLock implements Lock {
 	 */
 	@Override
 	public boolean tryLock() {
-		if (handleReentrantLock())
-			return true;
-
-		if (!outerLock.tryLock()) return false; // there are already waiters
-		try {
-			acquisitionLock.lock();
-			try {
-				if (owner != null)
-					return false;
-
-				// acquired
-				owner = Thread.currentThread();
-				holdCount = 1;
-				return true;
-			} finally {
-				acquisitionLock.unlock();
-			}
-		} finally {
-			outerLock.unlock();
-		}
+		return tryAcquireFast(false, DEFAULT_PRIORITY);
 	}
 
 	/**
@@ -173,38 +556,246 @@ public class PreemptibleLock implements Lock {
 	 */
 	@Override
 	public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-		Date deadline = new Date(System.currentTimeMillis() + unit.toMillis(time));
+		return tryLock(DEFAULT_PRIORITY, time, unit);
+	}
 
-		if (handleReentrantLock()) // minimal contention, don't count
-			return true;
+	/**
+	 * Tries to acquire the lock within the given time.
+	 * This method may preempt (interrupt) previous lock holders of lower or equal priority,
+	 * but it is not guaranteed that the lock will be acquired after the interrupt.
+	 *
+	 * @param priority the priority of this acquisition; higher values take precedence
+	 * @return true if the lock was acquired, false otherwise
+	 */
+	public boolean tryLock(int priority, long time, TimeUnit unit) throws InterruptedException {
+		return acquire(priority, true, true, unit.toNanos(time), null);
+	}
 
-		if (!outerLock.tryLock(time, unit)) return false;
-		try {
-			acquisitionLock.lock(); // minimal contention, don't count
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * See the class documentation for how condition waiters get the lock back.
+	 */
+	@Override
+	public Condition newCondition() {
+		return new ConditionObject();
+	}
+
+	/**
+	 * A queue of threads awaiting a condition.  Signalling moves them over to the lock's
+	 * queue, where they wait to get the lock back at the priority they held it with.
+	 */
+	private final class ConditionObject implements Condition {
+		private Waiter first, last; // guarded by queueLock
+
+		@Override
+		public void await() throws InterruptedException {
+			await(true, false, 0L);
+		}
+
+		@Override
+		public void awaitUninterruptibly() {
 			try {
-				if (owner != null) {
-					owner.interrupt();
+				await(false, false, 0L);
+			} catch (InterruptedException e) {
+				throw new InternalError(e); // not thrown when uninterruptible
+			}
+		}
 
-					do
-						if (!acquisitionCondition.awaitUntil(deadline))
-							return false;
-					while (owner != null);
+		@Override
+		public long awaitNanos(long nanosTimeout) throws InterruptedException {
+			return await(true, true, nanosTimeout);
+		}
+
+		@Override
+		public boolean await(long time, TimeUnit unit) throws InterruptedException {
+			return await(true, true, unit.toNanos(time)) > 0L;
+		}
+
+		@Override
+		public boolean awaitUntil(Date deadline) throws InterruptedException {
+			return await(true, true, TimeUnit.MILLISECONDS.toNanos(deadline.getTime() - System.currentTimeMillis())) > 0L;
+		}
+
+		/**
+		 * Releases the lock, waits for a signal, and gets the lock back.
+		 *
+		 * @return for timed waits, the time left, or zero or less if timed out
+		 */
+		private long await(boolean interruptible, boolean timed, long nanos) throws InterruptedException {
+			if (interruptible && Thread.interrupted())
+				throw new InterruptedException();
+
+			final Thread current = Thread.currentThread();
+			if (owner != current)
+				throw new IllegalMonitorStateException("Calling thread does not hold the lock");
+
+			final Clock clock = Clock.current();
+			final long deadline = timed ? clock.nanoTime() + nanos : 0L;
+			final int holds = holdCount;
+			// other owners use the raised priorities while this thread awaits, so set them aside
+			final int[] savedRaisedFrom = raisedFrom;
+			final int savedRaised = raised;
+			raisedFrom = null;
+			raised = 0;
+			final Waiter node = new Waiter(current, ownerPriority, CancellationToken.Hold.afterRelease(ownerHold));
+			final CancellationToken token = interruptible ? node.outer : null;
+			final CancellationToken.Registration registration =
+					(token != null) ? token.onCancel(() -> Clock.current().unpark(current)) : null;
+			queueLock.lock();
+			try {
+				if (last == null)
+					first = node;
+				else
+					last.next = node;
+				last = node;
+			} finally {
+				queueLock.unlock();
+			}
+
+			holdCount = 1;
+			unlock();
+
+			boolean interrupted = false;
+			boolean cancelled = false; // left the condition by being interrupted, not signalled
+			boolean timedOut = false;
+			while (!node.transferred) {
+				if (timed) {
+					long remaining = deadline - clock.nanoTime();
+					if (remaining <= 0L) {
+						timedOut = cancel(node);
+						break;
+					}
+					clock.parkNanos(this, remaining);
+				} else {
+					Clock.current().park(this);
 				}
 
-				// acquired
-				owner = Thread.currentThread();
-				holdCount = 1;
+				if (Thread.interrupted()) {
+					interrupted = true;
+					if (interruptible) {
+						cancelled = cancel(node);
+						break;
+					}
+				}
+				if (token != null && token.isCancelled()) {
+					cancelled = cancel(node);
+					break;
+				}
+			}
+			if (registration != null)
+				registration.close();
+
+			awaitQueued(node, false, false, 0L, null); // keeps any interrupt pending
+			holdCount = holds;
+			raisedFrom = savedRaisedFrom;
+			raised = savedRaised;
+
+			if (cancelled) {
+				Thread.interrupted();
+				if (token != null)
+					token.throwIfCancelled();
+				throw new InterruptedException();
+			}
+			if (interrupted)
+				current.interrupt();
+
+			if (!timed)
+				return 0L;
+			long remaining = deadline - clock.nanoTime();
+			return timedOut ? Math.min(remaining, 0L) : Math.max(remaining, 1L);
+		}
+
+		/**
+		 * Moves the node to the lock's queue unless a signal already did.
+		 *
+		 * @return true if the node was still waiting for a signal
+		 */
+		private boolean cancel(Waiter node) {
+			queueLock.lock();
+			try {
+				if (node.transferred)
+					return false;
+
+				Waiter previous = null;
+				for (Waiter w = first; w != node; w = w.next)
+					previous = w;
+				if (previous == null)
+					first = node.next;
+				else
+					previous.next = node.next;
+				if (last == node)
+					last = previous;
+
+				transfer(node);
 				return true;
 			} finally {
-				acquisitionLock.unlock();
+				queueLock.unlock();
 			}
-		} finally {
-			outerLock.unlock();
+		}
+
+		/**
+		 * Moves a node that has left the condition to the lock's queue.  It will not
+		 * preempt the current owner, who is usually the thread that signalled it.
+		 */
+		private void transfer(Waiter node) {
+			node.next = null;
+			node.preempted = owner;
+			enqueue(node);
+			node.transferred = true;
+		}
+
+		@Override
+		public void signal() {
+			signal(false);
+		}
+
+		@Override
+		public void signalAll() {
+			signal(true);
+		}
+
+		private void signal(boolean all) {
+			Waiter first;
+			queueLock.lock();
+			try {
+				Waiter node;
+				while ((node = this.first) != null) {
+					this.first = node.next;
+					if (this.first == null)
+						last = null;
+					transfer(node);
+					if (!all)
+						break;
+				}
+				first = head;
+			} finally {
+				queueLock.unlock();
+			}
+
+			// if the lock is free, the first waiter has to take it
+			if (first != null)
+				Clock.current().unpark(first.thread);
 		}
 	}
 
-	@Override
-	public Condition newCondition() {
-		throw new UnsupportedOperationException("Conditions are not supported");
+	private static final class Waiter {
+		final Thread thread;
+		final int priority;
+		final CancellationToken outer; // the token its thread runs under, apart from any hold on this lock
+		final CancellationToken.Hold hold; // taken by its thread, for when it owns the lock
+		Waiter next; // guarded by queueLock
+		Thread preempted; // the last owner interrupted on this waiter's behalf
+		long preemptedNanos; // when it was preempted, if recording Flight Recorder events
+		volatile boolean granted; // set once ownership has been handed to this waiter
+
+		volatile boolean transferred; // set once a condition waiter has moved to the lock's queue
+
+		Waiter(Thread thread, int priority, CancellationToken outer) {
+			this.thread = thread;
+			this.priority = priority;
+			this.outer = outer;
+			this.hold = CancellationToken.Hold.take(outer);
+		}
 	}
-}
\ No newline at end of file
+}
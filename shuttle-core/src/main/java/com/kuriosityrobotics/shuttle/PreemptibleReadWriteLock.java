@@ -0,0 +1,568 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A read/write lock whose write lock can be preempted.
+ * <p>
+ * The write lock behaves like a {@link PreemptibleLock}: taking it preempts a writer of
+ * lower or equal priority, then waits for readers to drain.  If the lock was created with
+ * {@code interruptReaders}, the readers are preempted as well, the same way: the token a
+ * reader runs under while it holds the read lock is cancelled, and the reader is
+ * interrupted unless the lock was created not to interrupt holders.  The read lock
+ * is shared, never preempts anybody, and is not granted to new readers while a writer
+ * holds the lock or is waiting for readers to drain.  It is reentrant: a thread that
+ * already holds it gets it again even while a writer waits, since the writer is waiting
+ * for that thread.  A writer may take the read lock (downgrading when it releases the
+ * write lock), but a reader cannot upgrade to a writer.
+ * <p>
+ * For reads that should not block writers at all, {@link #tryOptimisticRead()} returns a
+ * stamp that {@link #validate(long)} checks afterwards: if no writer took the lock in
+ * between, the values read are consistent.  Because this library avoids memory fences that
+ * are unavailable on Android, the fields read optimistically must be volatile (or final).
+ */
+public class PreemptibleReadWriteLock implements ReadWriteLock {
+	private static final long READERS = 0xFFFF_FFFFL; // the number of read holds
+	private static final long WRITER = 1L << 32; // set while a writer drains readers or holds the lock
+	private static final long VERSION = 1L << 33; // added for every write lock release
+
+	private static final AtomicLongFieldUpdater<PreemptibleReadWriteLock> STATE =
+			AtomicLongFieldUpdater.newUpdater(PreemptibleReadWriteLock.class, "state");
+
+	private final PreemptibleLock writers; // serialises (and preempts) writers
+	private final ThreadLocal<ReadHolds> readHolds = ThreadLocal.withInitial(ReadHolds::new); // the current thread's
+	private final ConcurrentHashMap<Thread, ReadHolds> readers; // the threads holding the read lock, if they are preempted
+
+	private volatile long state = VERSION; // version | WRITER | readers
+	private volatile Thread writer; // the thread that set WRITER
+	private int writeHolds; // only accessed by the writer
+
+	private final ReentrantLock waitLock = new ReentrantLock(); // only taken by readers that wait for a writer
+	private volatile ReadWaiter readWaiters; // the readers waiting for a writer; written under waitLock
+
+	private final ReadLock readLock = new ReadLock();
+	private final WriteLock writeLock = new WriteLock();
+
+	public PreemptibleReadWriteLock() {
+		this(false, false);
+	}
+
+	/**
+	 * @param fair             whether writers are granted the lock in arrival order
+	 *                         (see {@link PreemptibleLock#PreemptibleLock(boolean)})
+	 * @param interruptReaders whether a writer preempts readers, rather than only
+	 *                         waiting for them to finish
+	 */
+	public PreemptibleReadWriteLock(boolean fair, boolean interruptReaders) {
+		this(fair, interruptReaders, true);
+	}
+
+	/**
+	 * @param fair             whether writers are granted the lock in arrival order
+	 *                         (see {@link PreemptibleLock#PreemptibleLock(boolean)})
+	 * @param interruptReaders whether a writer preempts readers, rather than only waiting
+	 *                         for them to finish
+	 * @param interruptHolders if false, preempting a writer or reader only cancels its
+	 *                         cancellation token instead of interrupting it as well (see
+	 *                         {@link PreemptibleLock#PreemptibleLock(boolean, boolean)})
+	 */
+	public PreemptibleReadWriteLock(boolean fair, boolean interruptReaders, boolean interruptHolders) {
+		this.writers = new PreemptibleLock(fair, interruptHolders);
+		this.readers = interruptReaders ? new ConcurrentHashMap<>() : null;
+	}
+
+	@Override
+	public ReadLock readLock() {
+		return readLock;
+	}
+
+	@Override
+	public WriteLock writeLock() {
+		return writeLock;
+	}
+
+	/**
+	 * @return a stamp to pass to {@link #validate(long)}, or zero if the write lock is held
+	 */
+	public long tryOptimisticRead() {
+		long s = state;
+		return (s & WRITER) == 0 ? (s & ~READERS) : 0L;
+	}
+
+	/**
+	 * @return true if the write lock has not been taken since the stamp was issued
+	 * by {@link #tryOptimisticRead()}; always false for a zero stamp
+	 */
+	public boolean validate(long stamp) {
+		return stamp != 0L && (state & ~READERS) == stamp;
+	}
+
+	/**
+	 * @return an estimate of whether the write lock is held (or being taken)
+	 */
+	public boolean isWriteLocked() {
+		return (state & WRITER) != 0;
+	}
+
+	/**
+	 * @return an estimate of the number of read holds
+	 */
+	public int getReadLockCount() {
+		return (int) (state & READERS);
+	}
+
+	private boolean tryAcquireRead() {
+		Thread current = Thread.currentThread();
+		ReadHolds holds = readHolds.get();
+		long s;
+		do {
+			s = state;
+			// a writer draining readers waits for this thread's holds, so it must be able to add to them
+			if ((s & WRITER) != 0 && writer != current && holds.count == 0)
+				return false;
+			if ((s & READERS) == READERS)
+				throw new Error("Maximum read lock count exceeded");
+		} while (!STATE.compareAndSet(this, s, s + 1));
+
+		if (holds.count++ == 0 && readers != null) {
+			CancellationToken.Hold hold = CancellationToken.Hold.take(CancellationToken.currentOrNull());
+			holds.hold = hold;
+			if (hold != null)
+				hold.enter();
+			readers.put(current, holds);
+			// a writer that started draining before this thread was registered could not preempt it
+			if ((state & WRITER) != 0 && writer != current)
+				writers.signalPreempted(current, hold, (hold != null) ? hold.generation() : 0);
+		}
+		return true;
+	}
+
+	/**
+	 * Waits until no writer holds the lock, then takes a read hold.
+	 *
+	 * @return true if acquired, false if timed out
+	 */
+	private boolean acquireRead(boolean interruptible, boolean timed, long nanos) throws InterruptedException {
+		if (tryAcquireRead())
+			return true;
+
+		final Clock clock = timed ? Clock.current() : null;
+		final long deadline = timed ? clock.nanoTime() + nanos : 0L;
+		final ReadWaiter node = new ReadWaiter(Thread.currentThread());
+		boolean interrupted = false;
+		try {
+			while (true) {
+				// queued before looking, so that a writer releasing the lock afterwards wakes it
+				enqueueReader(node);
+				if (tryAcquireRead())
+					return true;
+
+				if (timed) {
+					long remaining = deadline - clock.nanoTime();
+					if (remaining <= 0L)
+						return false;
+					clock.parkNanos(this, remaining);
+				} else {
+					Clock.current().park(this);
+				}
+
+				if (Thread.interrupted()) {
+					if (interruptible || timed) // timed waits are always interruptible
+						throw new InterruptedException();
+					interrupted = true;
+				}
+			}
+		} finally {
+			dequeueReader(node);
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void enqueueReader(ReadWaiter node) {
+		waitLock.lock();
+		try {
+			if (!node.queued) {
+				node.queued = true;
+				node.next = readWaiters;
+				readWaiters = node;
+			}
+		} finally {
+			waitLock.unlock();
+		}
+	}
+
+	private void dequeueReader(ReadWaiter node) {
+		waitLock.lock();
+		try {
+			if (!node.queued)
+				return;
+			node.queued = false;
+
+			ReadWaiter previous = null;
+			ReadWaiter w = readWaiters;
+			while (w != node) {
+				previous = w;
+				w = w.next;
+			}
+			if (previous == null)
+				readWaiters = node.next;
+			else
+				previous.next = node.next;
+			node.next = null;
+		} finally {
+			waitLock.unlock();
+		}
+	}
+
+	private void releaseRead() {
+		ReadHolds holds = readHolds.get();
+		if (holds.count == 0)
+			throw new IllegalMonitorStateException("Calling thread does not hold the read lock");
+
+		long s;
+		do {
+			s = state;
+		} while (!STATE.compareAndSet(this, s, s - 1));
+
+		if (--holds.count == 0 && readers != null) {
+			// takes the map's lock for this thread, so that a writer never preempts a reader
+			// after its unlock() has returned
+			readers.remove(Thread.currentThread());
+			CancellationToken.Hold hold = holds.hold;
+			holds.hold = null;
+			if (hold != null)
+				hold.release();
+		}
+
+		if ((s & READERS) == 1 && (s & WRITER) != 0) {
+			Thread writer = this.writer;
+			if (writer != null)
+				Clock.current().unpark(writer);
+		}
+	}
+
+	/**
+	 * Takes the writer lock, then excludes new readers and waits for the current ones to
+	 * finish, preempting them if configured to.
+	 *
+	 * @return true if acquired, false if timed out
+	 */
+	private boolean acquireWrite(int priority, boolean interruptible, boolean timed, long nanos) throws InterruptedException {
+		final Thread current = Thread.currentThread();
+		if (writer == current) {
+			writeHolds++;
+			return true;
+		}
+
+		final long deadline = timed ? Clock.current().nanoTime() + nanos : 0L;
+		if (timed) {
+			if (!writers.tryLock(priority, nanos, TimeUnit.NANOSECONDS))
+				return false;
+		} else if (interruptible) {
+			writers.lockInterruptiblyWithPriority(priority);
+		} else {
+			writers.lockWithPriority(priority);
+		}
+
+		writer = current;
+		STATE.getAndAdd(this, WRITER); // only the holder of the writer lock sets it
+
+		boolean drained = false;
+		try {
+			drained = awaitReaders(interruptible, timed, deadline);
+		} finally {
+			if (!drained) {
+				writer = null;
+				STATE.getAndAdd(this, -WRITER); // nothing was written: stamps stay valid
+				signalReaders();
+				writers.unlock();
+			}
+		}
+		if (!drained)
+			return false;
+
+		writeHolds = 1;
+		return true;
+	}
+
+	private boolean awaitReaders(boolean interruptible, boolean timed, long deadline) throws InterruptedException {
+		if ((state & READERS) == 0)
+			return true;
+
+		if (readers != null)
+			preemptReaders();
+
+		final Clock clock = timed ? Clock.current() : null;
+		boolean interrupted = false;
+		try {
+			while ((state & READERS) != 0) {
+				if (timed) {
+					long remaining = deadline - clock.nanoTime();
+					if (remaining <= 0L)
+						return false;
+					clock.parkNanos(this, remaining);
+				} else {
+					Clock.current().park(this);
+				}
+
+				if (Thread.interrupted()) {
+					if (interruptible)
+						throw new InterruptedException();
+					interrupted = true;
+				}
+			}
+			return true;
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Preempts every thread holding the read lock, other than the current thread.
+	 */
+	private void preemptReaders() {
+		Thread current = Thread.currentThread();
+		for (Map.Entry<Thread, ReadHolds> entry : readers.entrySet()) {
+			Thread reader = entry.getKey();
+			if (reader == current)
+				continue;
+
+			ReadHolds holds = entry.getValue();
+			CancellationToken.Hold hold = holds.hold;
+			if (hold != null) {
+				int generation = hold.generation();
+				// the reader clears its hold before releasing it, so the generation read is
+				// that of the hold still registered; cancelling runs callbacks, so not under
+				// the map's lock
+				if (holds.hold == hold)
+					writers.signalPreempted(reader, hold, generation);
+			} else {
+				// takes the map's lock for this reader, so that its unlock() cannot return first
+				readers.computeIfPresent(reader, (thread, h) -> {
+					writers.signalPreempted(thread, null, 0);
+					return h;
+				});
+			}
+		}
+	}
+
+	private void releaseWrite() {
+		if (writer != Thread.currentThread())
+			throw new IllegalMonitorStateException("Calling thread does not hold the write lock");
+
+		if (--writeHolds == 0) {
+			writer = null;
+			STATE.getAndAdd(this, VERSION - WRITER);
+			signalReaders();
+			writers.unlock();
+		}
+	}
+
+	/**
+	 * Wakes every reader waiting for a writer, through the current clock.  Those that
+	 * still cannot take the lock queue up again.
+	 */
+	private void signalReaders() {
+		if (readWaiters == null)
+			return;
+
+		Clock clock = Clock.current();
+		waitLock.lock();
+		try {
+			ReadWaiter w = readWaiters;
+			readWaiters = null;
+			while (w != null) { // a woken reader may queue up again as soon as it is unparked
+				ReadWaiter next = w.next;
+				w.next = null;
+				w.queued = false;
+				clock.unpark(w.thread);
+				w = next;
+			}
+		} finally {
+			waitLock.unlock();
+		}
+	}
+
+	/**
+	 * A thread's read holds, and, if readers are preempted, the hold that preempting the
+	 * thread cancels.  Written by its thread; the hold is read by writers preempting it
+	 * under the map's lock for the thread.
+	 */
+	private static final class ReadHolds {
+		int count;
+		volatile CancellationToken.Hold hold; // read by preempting writers
+	}
+
+	/**
+	 * A reader waiting for a writer to release the lock.
+	 */
+	private static final class ReadWaiter {
+		final Thread thread;
+		ReadWaiter next; // guarded by waitLock
+		boolean queued; // guarded by waitLock
+
+		ReadWaiter(Thread thread) {
+			this.thread = thread;
+		}
+	}
+
+	@Override
+	public String toString() {
+		long s = state;
+		return Util.toIdentityString(this) + "[" + ((s & WRITER) != 0 ? "write locked by " + writer : (s & READERS) + " readers") + "]";
+	}
+
+	/**
+	 * The shared lock.  Acquiring it never preempts anybody.
+	 */
+	public final class ReadLock implements Lock {
+		private ReadLock() {
+		}
+
+		@Override
+		public void lock() {
+			try {
+				acquireRead(false, false, 0L);
+			} catch (InterruptedException e) {
+				throw new InternalError(e); // not thrown when uninterruptible
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			acquireRead(true, false, 0L);
+		}
+
+		/**
+		 * Acquires the read lock if no writer holds it or is waiting for readers to drain.
+		 */
+		@Override
+		public boolean tryLock() {
+			return tryAcquireRead();
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			return acquireRead(true, true, unit.toNanos(time));
+		}
+
+		@Override
+		public void unlock() {
+			releaseRead();
+		}
+
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException("Read locks do not support conditions");
+		}
+	}
+
+	/**
+	 * The exclusive lock.  Acquiring it preempts writers of lower or equal priority, like
+	 * {@link PreemptibleLock}, and then waits for (or preempts) readers.
+	 */
+	public final class WriteLock implements Lock {
+		private WriteLock() {
+		}
+
+		@Override
+		public void lock() {
+			lockWithPriority(PreemptibleLock.DEFAULT_PRIORITY);
+		}
+
+		/**
+		 * @see PreemptibleLock#lockWithPriority(int)
+		 */
+		public void lockWithPriority(int priority) {
+			try {
+				acquireWrite(priority, false, false, 0L);
+			} catch (InterruptedException e) {
+				throw new InternalError(e); // not thrown when uninterruptible
+			}
+		}
+
+		@Override
+		public void lockInterruptibly() throws InterruptedException {
+			lockInterruptiblyWithPriority(PreemptibleLock.DEFAULT_PRIORITY);
+		}
+
+		/**
+		 * @see PreemptibleLock#lockInterruptiblyWithPriority(int)
+		 */
+		public void lockInterruptiblyWithPriority(int priority) throws InterruptedException {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			acquireWrite(priority, true, false, 0L);
+		}
+
+		/**
+		 * Acquires the write lock if it is free and there are no readers.
+		 * This method does not preempt (interrupt) anybody.
+		 */
+		@Override
+		public boolean tryLock() {
+			Thread current = Thread.currentThread();
+			if (writer == current) {
+				writeHolds++;
+				return true;
+			}
+
+			if (!writers.tryLock())
+				return false;
+
+			writer = current;
+			long s = state;
+			if ((s & (READERS | WRITER)) != 0 || !STATE.compareAndSet(PreemptibleReadWriteLock.this, s, s | WRITER)) {
+				writer = null;
+				writers.unlock();
+				return false;
+			}
+			writeHolds = 1;
+			return true;
+		}
+
+		@Override
+		public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+			return tryLock(PreemptibleLock.DEFAULT_PRIORITY, time, unit);
+		}
+
+		/**
+		 * @see PreemptibleLock#tryLock(int, long, TimeUnit)
+		 */
+		public boolean tryLock(int priority, long time, TimeUnit unit) throws InterruptedException {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+			return acquireWrite(priority, true, true, unit.toNanos(time));
+		}
+
+		@Override
+		public void unlock() {
+			releaseWrite();
+		}
+
+		@Override
+		public Condition newCondition() {
+			throw new UnsupportedOperationException("Conditions are not supported");
+		}
+
+		/**
+		 * @return true if the current thread holds the write lock
+		 */
+		public boolean isHeldByCurrentThread() {
+			return writer == Thread.currentThread();
+		}
+	}
+}
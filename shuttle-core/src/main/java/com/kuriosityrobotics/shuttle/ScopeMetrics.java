@@ -0,0 +1,147 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings recorded by task scopes, grouped by task scope name.  Task scopes only record
+ * into a {@code ScopeMetrics} when they are configured to with
+ * {@link StructuredTaskScope.Configuration#withMetrics(ScopeMetrics)}; otherwise they take
+ * no timestamps at all.
+ * <p>
+ * Task scopes with the same name share a {@link ScopeStats}, so a scope that is opened
+ * every loop iteration accumulates into one set of histograms.  Unnamed task scopes are
+ * grouped under {@value #UNNAMED}.  Since every name gets its own histograms, names should
+ * come from a fixed set, such as the subsystems of a robot.
+ * <p>
+ * Recording never blocks or allocates, so it is safe to leave enabled on a control loop.
+ */
+public final class ScopeMetrics {
+	/**
+	 * The name that unnamed task scopes are recorded under.
+	 */
+	public static final String UNNAMED = "<unnamed>";
+
+	private final ConcurrentHashMap<String, ScopeStats> scopes = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the statistics for task scopes with the given name, creating them if no
+	 * such task scope has been opened yet.
+	 *
+	 * @param name the task scope name, can be null
+	 */
+	public ScopeStats forScope(String name) {
+		String key = (name != null) ? name : UNNAMED;
+		ScopeStats stats = scopes.get(key);
+		return (stats != null) ? stats : scopes.computeIfAbsent(key, ScopeStats::new);
+	}
+
+	/**
+	 * Returns the statistics of every task scope name recorded so far.
+	 */
+	public Collection<ScopeStats> scopes() {
+		return Collections.unmodifiableCollection(scopes.values());
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (ScopeStats stats : scopes.values())
+			sb.append(stats).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * The timings of the task scopes with one name, and how their subtasks ended.
+	 */
+	public static final class ScopeStats {
+		private final String name;
+		final LatencyHistogram forkToRun = new LatencyHistogram();
+		final LatencyHistogram runTime = new LatencyHistogram();
+		final LatencyHistogram joinWait = new LatencyHistogram();
+		final LatencyHistogram shutdownToQuiescence = new LatencyHistogram();
+		final AtomicLong succeeded = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong unavailable = new AtomicLong();
+
+		private ScopeStats(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the task scope name these statistics are for.
+		 */
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * Returns the time from a subtask being forked to it starting to run: the cost of
+		 * starting a thread, or the time spent queued for a worker.
+		 */
+		public LatencyHistogram forkToRun() {
+			return forkToRun;
+		}
+
+		/**
+		 * Returns the time subtasks spent running.
+		 */
+		public LatencyHistogram runTime() {
+			return runTime;
+		}
+
+		/**
+		 * Returns the time owners spent in {@code join}, from calling it to it returning
+		 * or throwing.
+		 */
+		public LatencyHistogram joinWait() {
+			return joinWait;
+		}
+
+		/**
+		 * Returns the time from a task scope shutting down to all of its threads having
+		 * finished, as seen by the owner when it closes the task scope.  This is how long
+		 * unfinished subtasks take to notice cancellation, plus any time the owner took to
+		 * get to {@code close}.
+		 */
+		public LatencyHistogram shutdownToQuiescence() {
+			return shutdownToQuiescence;
+		}
+
+		/**
+		 * Returns the number of subtasks that {@linkplain StructuredTaskScope.Subtask.State#SUCCESS
+		 * completed successfully}.
+		 */
+		public long succeeded() {
+			return succeeded.get();
+		}
+
+		/**
+		 * Returns the number of subtasks that {@linkplain StructuredTaskScope.Subtask.State#FAILED
+		 * failed}.
+		 */
+		public long failed() {
+			return failed.get();
+		}
+
+		/**
+		 * Returns the number of subtasks that ran but finished after their task scope
+		 * shut down, and so were left {@linkplain StructuredTaskScope.Subtask.State#UNAVAILABLE
+		 * unavailable}.
+		 */
+		public long unavailable() {
+			return unavailable.get();
+		}
+
+		@Override
+		public String toString() {
+			return name + ": succeeded=" + succeeded() + " failed=" + failed() + " unavailable=" + unavailable()
+					+ "\n  fork to run: " + forkToRun
+					+ "\n  run time: " + runTime
+					+ "\n  join wait: " + joinWait
+					+ "\n  shutdown to quiescence: " + shutdownToQuiescence;
+		}
+	}
+}
@@ -6,24 +6,91 @@ import java.util.WeakHashMap;
 
 class SharedSecrets {
 	private static final JavaLangAccess JLA = new JavaLangAccess() {
+		// only used for threads that are not ShuttleThreads
 		private final Map<Thread, ThreadContainer> CONTAINERS = Collections.synchronizedMap(new WeakHashMap<>());
 		private final ThreadLocal<StackableScope> HEAD_STACKABLE_SCOPE = new ThreadLocal<>();
+		private final ThreadLocal<CancellationToken> CANCELLATION_TOKEN = new ThreadLocal<>();
+		private final ThreadLocal<CancellationToken.Hold> SPARE_HOLDS = new ThreadLocal<>();
 
 		public ThreadContainer threadContainer(Thread thread) {
+			if (thread instanceof ShuttleThread)
+				return ((ShuttleThread) thread).container;
 			return CONTAINERS.get(thread);
 		}
 
 		public void start(Thread thread, ThreadContainer container) {
-			CONTAINERS.put(thread, container);
-			thread.start();
+			setThreadContainer(thread, container);
+			try {
+				container.onStart(thread); // may throw
+			} catch (Throwable e) {
+				setThreadContainer(thread, null);
+				throw e;
+			}
+
+			try {
+				thread.start();
+			} catch (Throwable e) {
+				// the thread never ran, so roll back as if it had exited
+				container.onExit(thread);
+				setThreadContainer(thread, null);
+				throw e;
+			}
+		}
+
+		public void setThreadContainer(Thread thread, ThreadContainer container) {
+			if (thread instanceof ShuttleThread)
+				((ShuttleThread) thread).container = container;
+			else if (container != null)
+				CONTAINERS.put(thread, container);
+			else
+				CONTAINERS.remove(thread);
 		}
 
 		public StackableScope headStackableScope(Thread thread) {
-			return HEAD_STACKABLE_SCOPE.get();
+			if (thread instanceof ShuttleThread)
+				return ((ShuttleThread) thread).headStackableScope;
+			// the thread local can only be read for the current thread
+			return (thread == Thread.currentThread()) ? HEAD_STACKABLE_SCOPE.get() : null;
 		}
 
 		public void setHeadStackableScope(StackableScope scope) {
-			HEAD_STACKABLE_SCOPE.set(scope);
+			Thread thread = Thread.currentThread();
+			if (thread instanceof ShuttleThread)
+				((ShuttleThread) thread).headStackableScope = scope;
+			else
+				HEAD_STACKABLE_SCOPE.set(scope);
+		}
+
+		public CancellationToken cancellationToken(Thread thread) {
+			if (thread instanceof ShuttleThread)
+				return ((ShuttleThread) thread).cancellationToken;
+			// the thread local can only be read for the current thread
+			return (thread == Thread.currentThread()) ? CANCELLATION_TOKEN.get() : null;
+		}
+
+		public void setCancellationToken(CancellationToken token) {
+			Thread thread = Thread.currentThread();
+			if (thread instanceof ShuttleThread)
+				((ShuttleThread) thread).cancellationToken = token;
+			else if (token != null)
+				CANCELLATION_TOKEN.set(token);
+			else
+				CANCELLATION_TOKEN.remove();
+		}
+
+		public CancellationToken.Hold spareHolds() {
+			Thread thread = Thread.currentThread();
+			if (thread instanceof ShuttleThread)
+				return ((ShuttleThread) thread).spareHolds;
+			return SPARE_HOLDS.get();
+		}
+
+		public void setSpareHolds(CancellationToken.Hold holds) {
+			Thread thread = Thread.currentThread();
+			if (thread instanceof ShuttleThread)
+				((ShuttleThread) thread).spareHolds = holds;
+			else
+				SPARE_HOLDS.set(holds);
 		}
 
 	};
@@ -0,0 +1,170 @@
+package com.kuriosityrobotics.shuttle;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.List;
+
+/**
+ * The Flight Recorder event types, which refer to {@code jdk.jfr} directly.  Only loaded
+ * through {@link FlightRecorderEvents}, once it has found Flight Recorder.
+ */
+final class ShuttleEvents {
+	private static final List<Class<? extends Event>> TYPES = List.of(
+			ForkEvent.class, SubtaskEvent.class, JoinEvent.class, ShutdownEvent.class, PreemptionEvent.class);
+
+	private ShuttleEvents() {}
+
+	/**
+	 * Keeps {@link FlightRecorderEvents#isEnabled()} up to date as recordings start and
+	 * stop.
+	 */
+	static void trackRecordings() {
+		if (!FlightRecorder.isAvailable())
+			return;
+
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				FlightRecorderEvents.setEnabled(isAnyEnabled()); // the settings already apply
+			}
+		});
+		// a recording may have been started from the command line
+		if (FlightRecorder.isInitialized())
+			FlightRecorderEvents.setEnabled(isAnyEnabled());
+	}
+
+	private static boolean isAnyEnabled() {
+		for (Class<? extends Event> type : TYPES) {
+			if (EventType.getEventType(type).isEnabled())
+				return true;
+		}
+		return false;
+	}
+
+	static void fork(String scope) {
+		ForkEvent event = new ForkEvent();
+		if (event.isEnabled()) {
+			event.scope = scope;
+			event.commit();
+		}
+	}
+
+	static void subtaskCompleted(String scope, StructuredTaskScope.Subtask.State state, long runNanos) {
+		SubtaskEvent event = new SubtaskEvent();
+		if (event.isEnabled()) {
+			event.scope = scope;
+			event.state = state.name();
+			event.runTime = runNanos;
+			event.commit();
+		}
+	}
+
+	static void join(String scope, long waitNanos) {
+		JoinEvent event = new JoinEvent();
+		if (event.isEnabled()) {
+			event.scope = scope;
+			event.waitTime = waitNanos;
+			event.commit();
+		}
+	}
+
+	static void shutdown(String scope, int interruptedThreads, long fanOutNanos) {
+		ShutdownEvent event = new ShutdownEvent();
+		if (event.isEnabled()) {
+			event.scope = scope;
+			event.interruptedThreads = interruptedThreads;
+			event.fanOutTime = fanOutNanos;
+			event.commit();
+		}
+	}
+
+	static void preemption(Thread holder, Thread preemptor, long handOffNanos) {
+		PreemptionEvent event = new PreemptionEvent();
+		if (event.isEnabled()) {
+			event.holder = holder;
+			event.preemptor = preemptor;
+			event.handOffTime = handOffNanos;
+			event.commit();
+		}
+	}
+
+	@Name("com.kuriosityrobotics.shuttle.Fork")
+	@Label("Subtask Forked")
+	@Category({"Shuttle", "Task Scope"})
+	@StackTrace(false)
+	static final class ForkEvent extends Event {
+		@Label("Scope")
+		String scope;
+	}
+
+	@Name("com.kuriosityrobotics.shuttle.Subtask")
+	@Label("Subtask Completed")
+	@Category({"Shuttle", "Task Scope"})
+	@StackTrace(false)
+	static final class SubtaskEvent extends Event {
+		@Label("Scope")
+		String scope;
+
+		@Label("State")
+		@Description("UNAVAILABLE if the task scope shut down before the subtask finished")
+		String state;
+
+		@Label("Run Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long runTime;
+	}
+
+	@Name("com.kuriosityrobotics.shuttle.Join")
+	@Label("Task Scope Joined")
+	@Category({"Shuttle", "Task Scope"})
+	static final class JoinEvent extends Event {
+		@Label("Scope")
+		String scope;
+
+		@Label("Wait Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long waitTime;
+	}
+
+	@Name("com.kuriosityrobotics.shuttle.Shutdown")
+	@Label("Task Scope Shut Down")
+	@Category({"Shuttle", "Task Scope"})
+	static final class ShutdownEvent extends Event {
+		@Label("Scope")
+		String scope;
+
+		@Label("Interrupted Threads")
+		int interruptedThreads;
+
+		@Label("Fan-out Time")
+		@Description("Time taken to cancel the subtasks and interrupt their threads")
+		@Timespan(Timespan.NANOSECONDS)
+		long fanOutTime;
+	}
+
+	@Name("com.kuriosityrobotics.shuttle.Preemption")
+	@Label("Lock Preempted")
+	@Category({"Shuttle", "Preemptible Lock"})
+	static final class PreemptionEvent extends Event {
+		@Label("Holder")
+		Thread holder;
+
+		@Label("Preemptor")
+		Thread preemptor;
+
+		@Label("Hand-off Time")
+		@Description("Time from the holder being preempted to the preemptor taking the lock")
+		@Timespan(Timespan.NANOSECONDS)
+		long handOffTime;
+	}
+}
@@ -0,0 +1,36 @@
+package com.kuriosityrobotics.shuttle;
+
+/**
+ * A thread that carries its own structured concurrency state.
+ * <p>
+ * The thread container a thread was started in, and the top of its stack of open scopes,
+ * are looked up every time a subtask is forked or the scope tree is walked, and the
+ * cancellation token it is running under every time it takes a lock or waits.  For threads
+ * of this class they are plain fields; for any other thread they live in a shared weak map
+ * and thread locals.  The default thread factory on Java 11 and Android, worker pools and
+ * simulations create ShuttleThreads; other threads, such as the virtual threads of the
+ * default factory on Java 21 or those of a factory given to
+ * {@link StructuredTaskScope.Configuration#withThreadFactory}, take the slower path.
+ */
+public class ShuttleThread extends Thread {
+	volatile ThreadContainer container;
+	volatile StackableScope headStackableScope;
+	volatile CancellationToken cancellationToken;
+	CancellationToken.Hold spareHolds; // only accessed by the thread itself
+
+	public ShuttleThread() {
+		super();
+	}
+
+	public ShuttleThread(Runnable target) {
+		super(target);
+	}
+
+	public ShuttleThread(String name) {
+		super(name);
+	}
+
+	public ShuttleThread(Runnable target, String name) {
+		super(target, name);
+	}
+}
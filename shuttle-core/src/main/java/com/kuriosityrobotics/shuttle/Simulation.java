@@ -0,0 +1,359 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a routine, and every subtask it forks, one thread at a time in an order chosen
+ * by a seeded random number generator, in virtual time.  The same seed always gives the
+ * same interleaving, so a race found by trying many seeds can be replayed from its seed:
+ * <pre>{@code
+ *     for (long seed = 0; seed < 1000; seed++) {
+ *         Simulation simulation = new Simulation(seed);
+ *         simulation.run(() -> autonomous(mockRobot()));
+ *     }
+ * }</pre>
+ * <p>
+ * While a simulation runs it is the {@linkplain Clock#current() current clock}, and every
+ * task scope forks onto threads it controls, whatever the scope's configuration says.
+ * Only the thread holding the simulation's baton runs; the others wait for it.  The baton
+ * changes hands whenever the running thread waits through the library: joining, waiting
+ * for a lock or condition, or {@linkplain CancellationToken#sleep(Duration) sleeping}.
+ * The next thread is picked at random from those that can run.  When none can, virtual
+ * time jumps to the earliest deadline being waited for, so a 30 second routine takes
+ * milliseconds.
+ * <p>
+ * Code under simulation must only block through the library.  A {@link Thread#sleep}
+ * holds the baton and passes in real time, and waiting on a monitor, latch or other
+ * primitive that another simulated thread would release never returns.
+ * <p>
+ * If every thread waits without a deadline, the simulation has deadlocked.  It then
+ * interrupts every waiting thread, so that interruptible waits give up and the task
+ * scopes unwind as usual, and {@link #run} throws once the routine has finished.  If the
+ * threads deadlock again, the simulation abandons them: their waits throw
+ * {@link IllegalStateException}.
+ */
+public final class Simulation extends Clock {
+	private final long seed;
+	private final Random random;
+	private final long startNanos;
+	private volatile long now; // written while holding this
+
+	// every thread in the simulation, in the order they joined it; guarded by this
+	private final List<SimulatedThread> threads = new ArrayList<>();
+	private final Map<Thread, SimulatedThread> byThread = new IdentityHashMap<>();
+	private int nextId; // guarded by this
+	private boolean started; // guarded by this
+	private volatile boolean deadlocked; // the waiting threads have been interrupted
+	private volatile boolean abandoned;  // and deadlocked again
+
+	private final ThreadFactory factory = this::newThread;
+
+	/**
+	 * Creates a simulation whose scheduling decisions are made by a random number
+	 * generator with the given seed.
+	 */
+	public Simulation(long seed) {
+		this.seed = seed;
+		this.random = new Random(seed);
+		this.startNanos = System.nanoTime(); // so that Instant.now() carries on from real time
+		this.now = startNanos;
+	}
+
+	/**
+	 * A routine to simulate.
+	 */
+	@FunctionalInterface
+	public interface Routine {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Runs the given routine on the current thread, as the first thread of the simulation,
+	 * and returns once it has finished.  A simulation can only be run once.
+	 *
+	 * @throws IllegalStateException if the simulation deadlocked, or left threads running
+	 * when the routine returned
+	 * @throws Exception whatever the routine threw
+	 */
+	public void run(Routine routine) throws Exception {
+		SimulatedThread main;
+		synchronized (this) {
+			if (started)
+				throw new IllegalStateException("Simulation already run");
+			started = true;
+			main = register(Thread.currentThread());
+		}
+
+		Clock previous = Clock.current();
+		Clock.set(this);
+		Exception failure = null;
+		int leftOver;
+		try {
+			routine.run();
+		} catch (Exception e) {
+			failure = e;
+		} finally {
+			Clock.set(previous);
+			synchronized (this) {
+				unregister(main);
+				leftOver = threads.size();
+			}
+		}
+
+		if (deadlocked) {
+			IllegalStateException e = new IllegalStateException("Simulation deadlocked");
+			if (failure != null)
+				e.addSuppressed(failure);
+			throw e;
+		}
+		if (failure != null)
+			throw failure;
+		if (leftOver > 0)
+			throw new IllegalStateException(leftOver + " simulated threads outlived the routine");
+	}
+
+	/**
+	 * Returns the seed this simulation was created with.
+	 */
+	public long seed() {
+		return seed;
+	}
+
+	/**
+	 * Returns how much virtual time has passed since the simulation was created.
+	 */
+	public Duration elapsed() {
+		return Duration.ofNanos(now - startNanos);
+	}
+
+	@Override
+	public long nanoTime() {
+		return now;
+	}
+
+	@Override
+	ThreadFactory threadFactory() {
+		// a thread outside the simulation keeps to the scope's configuration; its subtasks
+		// could not be scheduled, since it does not take turns itself
+		synchronized (this) {
+			return byThread.containsKey(Thread.currentThread()) ? factory : null;
+		}
+	}
+
+	@Override
+	public void park(Object blocker) {
+		waitForTurn(blocker, false, 0L);
+	}
+
+	@Override
+	public void parkNanos(Object blocker, long nanos) {
+		if (nanos > 0L)
+			waitForTurn(blocker, true, nanos);
+	}
+
+	@Override
+	public void unpark(Thread thread) {
+		if (thread == null)
+			return;
+
+		synchronized (this) {
+			SimulatedThread t = byThread.get(thread);
+			if (t != null) {
+				if (t.blocked)
+					t.wake();
+				else
+					t.permit = true;
+				return;
+			}
+		}
+		LockSupport.unpark(thread); // not one of ours
+	}
+
+	/**
+	 * Parks the current thread, as far as the simulation is concerned, and hands the baton
+	 * to the next thread to run, which may be the current thread itself.
+	 */
+	private void waitForTurn(Object blocker, boolean timed, long nanos) {
+		SimulatedThread current;
+		synchronized (this) {
+			current = byThread.get(Thread.currentThread());
+		}
+		if (current == null) {
+			// not one of ours
+			if (timed)
+				LockSupport.parkNanos(blocker, nanos);
+			else
+				LockSupport.park(blocker);
+			return;
+		}
+
+		SimulatedThread next;
+		synchronized (this) {
+			checkAbandoned();
+
+			if (current.permit) {
+				current.permit = false; // returns straight away, but others get a chance to run
+			} else if (!current.thread.isInterrupted()) {
+				current.blocked = true;
+				current.deadline = timed ? saturatedAdd(now, nanos) : Long.MAX_VALUE;
+			}
+			next = pickNext();
+		}
+
+		if (next != current) {
+			if (next != null)
+				next.baton.release();
+			current.baton.acquireUninterruptibly(); // leaves any interrupt pending
+		}
+		checkAbandoned();
+	}
+
+	/**
+	 * Picks the next thread to run, advancing time if every thread is waiting.  Must be
+	 * called with this held.
+	 *
+	 * @return the next thread, or null if the simulation deadlocked or has no threads
+	 */
+	private SimulatedThread pickNext() {
+		List<SimulatedThread> runnable = runnableThreads();
+		if (runnable.isEmpty()) {
+			long deadline = Long.MAX_VALUE;
+			for (SimulatedThread t : threads) {
+				if (t.blocked && t.deadline < deadline)
+					deadline = t.deadline;
+			}
+			if (deadline != Long.MAX_VALUE) {
+				if (deadline > now)
+					now = deadline;
+				for (SimulatedThread t : threads) {
+					if (t.blocked && t.deadline <= now)
+						t.wake();
+				}
+			} else if (!threads.isEmpty() && !deadlocked) {
+				deadlocked = true;
+				for (SimulatedThread t : threads) {
+					if (t.blocked)
+						t.thread.interrupt();
+				}
+			} else {
+				if (!threads.isEmpty())
+					abandon();
+				return null;
+			}
+			runnable = runnableThreads();
+			if (runnable.isEmpty()) { // nothing to interrupt
+				abandon();
+				return null;
+			}
+		}
+
+		SimulatedThread next = runnable.get(random.nextInt(runnable.size()));
+		next.wake();
+		return next;
+	}
+
+	// must hold this
+	private List<SimulatedThread> runnableThreads() {
+		List<SimulatedThread> runnable = new ArrayList<>();
+		for (SimulatedThread t : threads) {
+			// a thread that has not been started yet cannot run; an interrupted one returns from park
+			if (t.thread.isAlive() && (!t.blocked || t.thread.isInterrupted()))
+				runnable.add(t);
+		}
+		return runnable;
+	}
+
+	// must hold this
+	private void abandon() {
+		abandoned = true;
+		for (SimulatedThread t : threads)
+			t.baton.release();
+	}
+
+	private void checkAbandoned() {
+		if (abandoned)
+			throw new IllegalStateException("Simulation deadlocked: every thread is waiting without a deadline");
+	}
+
+	private static long saturatedAdd(long time, long nanos) {
+		long sum = time + nanos;
+		return (sum < time) ? Long.MAX_VALUE : sum;
+	}
+
+	private Thread newThread(Runnable task) {
+		SimulatedThread[] self = new SimulatedThread[1];
+		Thread thread = new ShuttleThread(() -> {
+			SimulatedThread t = self[0];
+			t.baton.acquireUninterruptibly();
+			try {
+				task.run();
+			} finally {
+				exit(t);
+			}
+		});
+		thread.setDaemon(true); // abandoned if the simulation deadlocks
+
+		synchronized (this) {
+			self[0] = register(thread);
+			thread.setName("simulated-" + self[0].id);
+		}
+		return thread;
+	}
+
+	// must hold this
+	private SimulatedThread register(Thread thread) {
+		SimulatedThread t = new SimulatedThread(thread, nextId++);
+		threads.add(t);
+		byThread.put(thread, t);
+		return t;
+	}
+
+	// must hold this
+	private void unregister(SimulatedThread t) {
+		threads.remove(t);
+		byThread.remove(t.thread);
+	}
+
+	private void exit(SimulatedThread t) {
+		SimulatedThread next;
+		synchronized (this) {
+			unregister(t);
+			next = abandoned ? null : pickNext();
+		}
+		if (next != null)
+			next.baton.release();
+	}
+
+	@Override
+	public String toString() {
+		return "Simulation[seed=" + seed + ", elapsed=" + elapsed().toMillis() + "ms]";
+	}
+
+	private static final class SimulatedThread {
+		final Thread thread;
+		final int id;
+		final Semaphore baton = new Semaphore(0);
+
+		// guarded by the simulation
+		boolean blocked;
+		long deadline;
+		boolean permit;
+
+		SimulatedThread(Thread thread, int id) {
+			this.thread = thread;
+			this.id = id;
+		}
+
+		void wake() {
+			blocked = false;
+			deadline = 0L;
+		}
+	}
+}
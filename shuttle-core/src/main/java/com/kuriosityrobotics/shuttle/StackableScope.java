@@ -30,12 +30,19 @@ package com.kuriosityrobotics.shuttle;
  * push a StackableScope to the current thread's scope stack. The tryPop and
  * popForcefully methods are used to pop the StackableScope from the current thread's
  * scope stack.
+ * <p>
+ * The stack is doubly linked, and each scope knows whether it is on its owner's stack,
+ * so that pushing, popping, testing membership and unlinking a scope from the middle of
+ * the stack are constant time.  Only the owner thread changes its stack; other threads
+ * only follow the {@code previous} links down from the head.
  */
 class StackableScope {
 	private static final JavaLangAccess JLA = SharedSecrets.getJavaLangAccess();
 
 	private final Thread owner;
 	private volatile StackableScope previous;
+	private StackableScope next;  // the scope pushed on top of this one; only accessed by the owner
+	private boolean onStack;      // only accessed by the owner
 
 	/**
 	 * Creates a stackable scope.
@@ -71,7 +78,12 @@ class StackableScope {
 	public StackableScope push() {
 		if (Thread.currentThread() != owner)
 			throw new WrongThreadException("Not owner");
-		previous = head();
+		StackableScope head = head();
+		previous = head;
+		next = null;
+		if (head != null)
+			head.next = this;
+		onStack = true;
 		setHead(this);
 		return this;
 	}
@@ -86,8 +98,7 @@ class StackableScope {
 		if (Thread.currentThread() != owner)
 			throw new WrongThreadException("Not owner");
 		if (head() == this) {
-			setHead(previous);
-			previous = null;
+			unlink();
 			return true;
 		} else {
 			return false;
@@ -116,13 +127,12 @@ class StackableScope {
 			throw new WrongThreadException("Not owner");
 		final StackableScope head = head();
 		if (head == this) {
-			setHead(previous);
-			previous = null;
+			unlink();
 			return true;
 		}
 
 		// scope is not the top of stack
-		if (contains(this)) {
+		if (onStack) {
 			StackableScope current = head;
 			while (current != this) {
 				StackableScope previous = current.previous();
@@ -147,7 +157,10 @@ class StackableScope {
 			while (current != null) {
 				assert Thread.currentThread() == current.owner();
 				current.tryClose();
-				current = current.previous();
+				StackableScope previous = current.previous();
+				current.previous = current.next = null;
+				current.onStack = false;
+				current = previous;
 			}
 			setHead(null);
 		}
@@ -188,20 +201,6 @@ class StackableScope {
 		return previous;
 	}
 
-	/**
-	 * Returns the scope that this scope directly encloses, null if none.
-	 */
-	private StackableScope next() {
-		assert contains(this);
-		StackableScope current = head();
-		StackableScope next = null;
-		while (current != this) {
-			next = current;
-			current = current.previous();
-		}
-		return next;
-	}
-
 	/**
 	 * Override this method to close this scope and release its resources.
 	 * This method should not pop the scope from the stack.
@@ -218,13 +217,17 @@ class StackableScope {
 	 */
 	private void unlink() {
 		assert contains(this);
-		StackableScope next = next();
+		StackableScope previous = this.previous;
+		StackableScope next = this.next;
 		if (next == null) {
 			setHead(previous);
 		} else {
 			next.previous = previous;
 		}
-		previous = null;
+		if (previous != null)
+			previous.next = next;
+		this.previous = this.next = null;
+		onStack = false;
 	}
 
 	/**
@@ -232,11 +235,7 @@ class StackableScope {
 	 */
 	private static boolean contains(StackableScope scope) {
 		assert scope != null;
-		StackableScope current = head();
-		while (current != null && current != scope) {
-			current = current.previous();
-		}
-		return (current == scope);
+		return scope.onStack && scope.owner == Thread.currentThread();
 	}
 
 	/**
@@ -96,7 +96,8 @@ import static com.kuriosityrobotics.shuttle.Util.toIdentityString;
  *
  * <p> {@code StructuredTaskScope} defines the {@link #shutdown() shutdown} method to shut
  * down a task scope without closing it. The {@code shutdown()} method <em>cancels</em> all
- * unfinished subtasks by {@linkplain Thread#interrupt() interrupting} the threads. It
+ * unfinished subtasks by cancelling their {@linkplain CancellationToken tokens} and, unless
+ * configured otherwise, {@linkplain Thread#interrupt() interrupting} the threads. It
  * prevents new threads from starting in the task scope. If the owner is waiting in the
  * {@code join} method then it will wakeup.
  *
@@ -268,8 +269,13 @@ import static com.kuriosityrobotics.shuttle.Util.toIdentityString;
  * @since 21
  */
 public abstract class StructuredTaskScope<T> implements AutoCloseable {
-	private final ThreadFactory factory;
+	private final ThreadFactory factory; // null when forking onto a worker pool
+	private final WorkerPool pool;       // null when forking onto new threads
 	private final ThreadFlock flock;
+	private final CancellationToken token;
+	private final boolean interruptOnShutdown;
+	private final ScopeMetrics.ScopeStats stats; // null unless metrics are enabled
+	private final int id = EventLog.newSubjectId(); // the subject of its EventLog events
 	private final ReentrantLock shutdownLock = new ReentrantLock();
 
 	// states: OPEN -> SHUTDOWN -> CLOSED
@@ -280,6 +286,9 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 	// state: set to SHUTDOWN by any thread, set to CLOSED by owner, read by any thread
 	private volatile int state;
 
+	// when the task scope shut down, if timing it; written before state is set to SHUTDOWN
+	private long shutdownNanos;
+
 	// Counters to support checking that the task scope owner joins before closing the task
 	// scope. These counters are accessed only by the owner thread.
 	private int forkRound;         // incremented when the first subtask is forked after join
@@ -352,6 +361,142 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 		Throwable exception();
 	}
 
+	/**
+	 * The settings a task scope is created with.  Configurations are immutable; each
+	 * {@code with} method returns a modified copy.
+	 */
+	public static final class Configuration {
+		// spinning only pays off when the subtasks can run on another core meanwhile
+		private static final long DEFAULT_JOIN_SPIN_NANOS =
+				(Runtime.getRuntime().availableProcessors() > 1) ? 50_000L : 0L;
+		private static final Configuration DEFAULTS = new Configuration(null, null, null, true, DEFAULT_JOIN_SPIN_NANOS, null);
+
+		private final String name;
+		private final ThreadFactory factory; // null for the default factory, or when pool is set
+		private final WorkerPool pool;
+		private final boolean interruptOnShutdown;
+		private final long joinSpinNanos;
+		private final ScopeMetrics metrics; // null when disabled
+
+		private Configuration(String name, ThreadFactory factory, WorkerPool pool, boolean interruptOnShutdown,
+				long joinSpinNanos, ScopeMetrics metrics) {
+			this.name = name;
+			this.factory = factory;
+			this.pool = pool;
+			this.interruptOnShutdown = interruptOnShutdown;
+			this.joinSpinNanos = joinSpinNanos;
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Returns the default configuration: an unnamed task scope that forks onto the
+		 * runtime's default thread factory, interrupts unfinished threads on shutdown, and
+		 * spins for up to 50 microseconds when joining on a multi-core device.
+		 */
+		public static Configuration defaults() {
+			return DEFAULTS;
+		}
+
+		/**
+		 * Returns a configuration with the given task scope name.
+		 *
+		 * @param name the name of the task scope, can be null
+		 */
+		public Configuration withName(String name) {
+			return new Configuration(name, factory, pool, interruptOnShutdown, joinSpinNanos, metrics);
+		}
+
+		/**
+		 * Returns a configuration that forks subtasks onto new threads from the given factory.
+		 */
+		public Configuration withThreadFactory(ThreadFactory factory) {
+			Objects.requireNonNull(factory, "'factory' is null");
+			return new Configuration(name, factory, null, interruptOnShutdown, joinSpinNanos, metrics);
+		}
+
+		/**
+		 * Returns a configuration that forks subtasks onto workers from the given pool.
+		 */
+		public Configuration withWorkerPool(WorkerPool pool) {
+			Objects.requireNonNull(pool, "'pool' is null");
+			return new Configuration(name, null, pool, interruptOnShutdown, joinSpinNanos, metrics);
+		}
+
+		/**
+		 * Returns a configuration that does, or does not, {@linkplain Thread#interrupt()
+		 * interrupt} unfinished threads when the task scope shuts down.  Their
+		 * {@linkplain CancellationToken cancellation tokens} are cancelled either way.
+		 */
+		public Configuration withInterruptOnShutdown(boolean interruptOnShutdown) {
+			return new Configuration(name, factory, pool, interruptOnShutdown, joinSpinNanos, metrics);
+		}
+
+		/**
+		 * Returns a configuration in which joining spins for up to the given time before
+		 * the owner parks.  For subtasks that finish within microseconds, such as a single
+		 * sensor read, this saves the owner a park and unpark.  The spin shortens itself
+		 * while subtasks keep outlasting it.  A zero duration disables spinning.
+		 */
+		public Configuration withJoinSpin(Duration maxSpin) {
+			long nanos = maxSpin.toNanos();
+			if (nanos < 0)
+				throw new IllegalArgumentException("'maxSpin' is negative");
+			return new Configuration(name, factory, pool, interruptOnShutdown, nanos, metrics);
+		}
+
+		/**
+		 * Returns a configuration in which the task scope records its timings into the
+		 * given metrics, under its name.  A null {@code metrics} disables recording, which
+		 * is the default.
+		 */
+		public Configuration withMetrics(ScopeMetrics metrics) {
+			return new Configuration(name, factory, pool, interruptOnShutdown, joinSpinNanos, metrics);
+		}
+
+		String name() {
+			return name;
+		}
+
+		ThreadFactory threadFactory() {
+			return factory;
+		}
+
+		WorkerPool workerPool() {
+			return pool;
+		}
+	}
+
+	/**
+	 * Creates a structured task scope with the given configuration.  The task scope is
+	 * owned by the current thread, and its {@linkplain #token() token} is a child of the
+	 * current thread's token.
+	 *
+	 * @param config the configuration
+	 */
+	@SuppressWarnings("this-escape")
+	public StructuredTaskScope(Configuration config) {
+		ThreadFactory simulated = Clock.current().threadFactory();
+		if (simulated != null) {
+			this.factory = simulated;
+			this.pool = null;
+		} else if (config.pool != null) {
+			this.factory = null;
+			this.pool = config.pool;
+		} else {
+			this.factory = (config.factory != null) ? config.factory : Platform.defaultThreadFactory();
+			this.pool = null;
+		}
+		this.interruptOnShutdown = config.interruptOnShutdown;
+		this.token = new CancellationToken(CancellationToken.current());
+		this.stats = (config.metrics != null) ? config.metrics.forScope(config.name) : null;
+
+		String name = config.name;
+		if (name == null)
+			name = toIdentityString(this);
+		this.flock = ThreadFlock.open(name, config.joinSpinNanos);
+		EventLog.shared().record(EventLog.Type.SCOPE_OPEN, id, 0);
+	}
+
 	/**
 	 * Creates a structured task scope with the given name and thread factory. The task
 	 * scope is optionally named for the purposes of monitoring and management. The thread
@@ -362,23 +507,33 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 	 * @param name the name of the task scope, can be null
 	 * @param factory the thread factory
 	 */
-	@SuppressWarnings("this-escape")
 	public StructuredTaskScope(String name, ThreadFactory factory) {
-		this.factory = Objects.requireNonNull(factory, "'factory' is null");
-		if (name == null)
-			name = toIdentityString(this);
-		this.flock = ThreadFlock.open(name);
+		this(Configuration.defaults().withName(name).withThreadFactory(factory));
+	}
+
+	/**
+	 * Creates a structured task scope with the given name that runs subtasks on workers
+	 * from the given pool. Workers are reused across forks and across task scopes, but a
+	 * worker is only a member of this task scope while it runs one of its subtasks. The
+	 * task scope is owned by the current thread.
+	 *
+	 * @param name the name of the task scope, can be null
+	 * @param pool the worker pool
+	 */
+	public StructuredTaskScope(String name, WorkerPool pool) {
+		this(Configuration.defaults().withName(name).withWorkerPool(pool));
 	}
 
 	/**
-	 * Creates an unnamed structured task scope that creates virtual threads. The task
-	 * scope is owned by the current thread.
+	 * Creates an unnamed structured task scope that creates virtual threads when the
+	 * runtime supports them (Java 21+), and platform threads otherwise. The task scope is
+	 * owned by the current thread.
 	 *
-	 * @implSpec This constructor is equivalent to invoking the 2-arg constructor with a
-	 * name of {@code null} and a thread factory that creates virtual threads.
+	 * @implSpec This constructor is equivalent to invoking the 1-arg constructor with the
+	 * {@linkplain Configuration#defaults() default configuration}.
 	 */
 	public StructuredTaskScope() {
-		this(null, Thread::new); // virtual threads don't exist in java 11
+		this(Configuration.defaults());
 	}
 
 	private IllegalStateException newIllegalStateExceptionScopeClosed() {
@@ -511,12 +666,19 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 
 		var subtask = new SubtaskImpl<U>(this, task);
 		if (s < SHUTDOWN) {
+			// recorded first, so that the log never shows the subtask completing before it
+			EventLog.shared().record(EventLog.Type.FORK, id, 0);
+
 			// attempt to start the thread
 			try {
-				Thread thread = flock.start(factory, subtask);
+				Thread thread = (pool != null)
+						? flock.start(pool, subtask)
+						: flock.start(factory, subtask);
 				if (thread == null) {
 					throw new RejectedExecutionException("Rejected by thread factory");
 				}
+				if (FlightRecorderEvents.isEnabled())
+					FlightRecorderEvents.fork(flock.name());
 			} catch (IllegalStateException e) {
 				// shutdown by another thread, or underlying flock is shutdown due
 				// to unstructured use
@@ -535,18 +697,29 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 	/**
 	 * Wait for all threads to finish or the task scope to shut down.
 	 */
-	private void implJoin(Duration timeout)
+	private void implJoin(boolean untimed, long timeoutNanos)
 			throws InterruptedException, TimeoutException
 	{
 		ensureOwner();
 		lastJoinAttempted = forkRound;
 		int s = ensureOpen();  // throws ISE if closed
 		if (s == OPEN) {
-			// wait for all threads, wakeup, interrupt, or timeout
-			if (timeout != null) {
-				flock.awaitAll(timeout);
-			} else {
-				flock.awaitAll();
+			boolean timed = (stats != null || FlightRecorderEvents.isEnabled());
+			long start = timed ? System.nanoTime() : 0L;
+			try {
+				// wait for all threads, wakeup, interrupt, or timeout
+				if (untimed) {
+					flock.awaitAll();
+				} else {
+					flock.awaitAll(timeoutNanos);
+				}
+			} finally {
+				if (timed) {
+					long waitNanos = System.nanoTime() - start;
+					if (stats != null)
+						stats.joinWait.record(waitNanos);
+					FlightRecorderEvents.join(flock.name(), waitNanos);
+				}
 			}
 		}
 		lastJoinCompleted = forkRound;
@@ -575,7 +748,7 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 	 */
 	protected StructuredTaskScope<T> joinInner() throws InterruptedException {
 		try {
-			implJoin(null);
+			implJoin(true, 0L);
 		} catch (TimeoutException e) {
 			throw new InternalError();
 		}
@@ -609,26 +782,47 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 	protected StructuredTaskScope<T> joinUntilInner(Instant deadline)
 			throws InterruptedException, TimeoutException
 	{
-		Duration timeout = Duration.between(Instant.now(), deadline);
-		implJoin(timeout);
+		return joinUntilInner(deadline.toNanos());
+	}
+
+	/**
+	 * Wait for all subtasks started in this task scope to finish or the task scope to
+	 * shut down, up to the given deadline, like {@link #joinUntilInner(Instant)}, without
+	 * allocating an Instant.
+	 *
+	 * @param deadlineNanos the deadline, as {@linkplain Instant#toNanos() Instant nanos}
+	 * @return this task scope
+	 * @throws IllegalStateException if this task scope is closed
+	 * @throws WrongThreadException if the current thread is not the task scope owner
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws TimeoutException if the deadline is reached while waiting
+	 */
+	protected StructuredTaskScope<T> joinUntilInner(long deadlineNanos)
+			throws InterruptedException, TimeoutException
+	{
+		implJoin(false, Instant.nanosUntil(deadlineNanos));
 		return this;
 	}
 
 	/**
-	 * Interrupt all unfinished threads.
+	 * Interrupt all unfinished threads, returning how many were interrupted.
 	 */
-	private void implInterruptAll() {
-		flock.threads()
+	private int implInterruptAll() {
+		return flock.threads()
 				.filter(t -> t != Thread.currentThread())
-				.forEach(t -> {
+				.mapToInt(t -> {
 					try {
-						t.interrupt();
-					} catch (Throwable ignore) { }
-				});
+						flock.interrupt(t);
+						return 1;
+					} catch (Throwable ignore) {
+						return 0;
+					}
+				})
+				.sum();
 	}
 
-	private void interruptAll() {
-		implInterruptAll();
+	private int interruptAll() {
+		return implInterruptAll();
 	}
 
 	/**
@@ -642,11 +836,23 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 				// prevent new threads from starting
 				flock.shutdown();
 
-				// set status before interrupting tasks
+				// set status before cancelling tasks
+				boolean timed = (stats != null || FlightRecorderEvents.isEnabled());
+				shutdownNanos = timed ? System.nanoTime() : 0L;
 				state = SHUTDOWN;
 
-				// interrupt all unfinished threads
-				interruptAll();
+				// cancel all unfinished subtasks, and interrupt their threads unless
+				// configured not to
+				int interrupted = 0;
+				try {
+					token.cancel();
+				} finally {
+					if (interruptOnShutdown)
+						interrupted = interruptAll();
+					EventLog.shared().record(EventLog.Type.SHUTDOWN, id, interrupted);
+					if (FlightRecorderEvents.isEnabled())
+						FlightRecorderEvents.shutdown(flock.name(), interrupted, System.nanoTime() - shutdownNanos);
+				}
 
 				return true;
 			} else {
@@ -668,8 +874,11 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 	 *
 	 * <p> More specifically, this method:
 	 * <ul>
+	 * <li> Cancels the {@linkplain #token() token} of the task scope, and with it the
+	 * token of every unfinished subtask.
 	 * <li> {@linkplain Thread#interrupt() Interrupts} all unfinished threads in the
-	 * task scope (except the current thread).
+	 * task scope (except the current thread), unless the task scope was
+	 * {@linkplain Configuration#withInterruptOnShutdown(boolean) configured} not to.
 	 * <li> Wakes up the task scope owner if it is waiting in {@link #joinInner()} or {@link
 	 * #joinUntilInner(Instant)}. If the task scope owner is not waiting then its next call to
 	 * {@code join} or {@code joinUntil} will return immediately.
@@ -706,6 +915,14 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 			flock.wakeup();
 	}
 
+	/**
+	 * Returns the cancellation token of this task scope, which is cancelled when it
+	 * shuts down.  The token of each subtask is a child of this token.
+	 */
+	public final CancellationToken token() {
+		return token;
+	}
+
 	/**
 	 * {@return true if this task scope is shutdown, otherwise false}
 	 * @see #shutdown()
@@ -752,8 +969,11 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 			if (s < SHUTDOWN)
 				implShutdown();
 			flock.close();
+			if (stats != null)
+				stats.shutdownToQuiescence.recordSince(shutdownNanos);
 		} finally {
 			state = CLOSED;
+			EventLog.shared().record(EventLog.Type.SCOPE_CLOSE, id, 0);
 		}
 
 		// throw ISE if the owner didn't attempt to join after forking
@@ -779,71 +999,71 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 	}
 
 	/**
-	 * Subtask implementation, runs the task specified to the fork method.
+	 * Subtask implementation, runs the task specified to the fork method.  It is also
+	 * the cancellation token the task runs under.
 	 */
-	private static final class SubtaskImpl<T> implements Subtask<T>, Runnable {
-		private final AltResult RESULT_NULL = new AltResult(State.SUCCESS);
-
-		public static class AltResult {
-			Subtask.State state;
-			Throwable exception;
-
-			public AltResult(Subtask.State state, Throwable exception) {
-				this.state = state;
-				this.exception = exception;
-			}
-
-			public Subtask.State state() {
-				return state;
-			}
-
-			public Throwable exception() {
-				return exception;
-			}
-
-			@Override
-			public boolean equals(Object o) {
-				if (this == o) return true;
-				if (o == null || getClass() != o.getClass()) return false;
-				AltResult altResult = (AltResult) o;
-				return state == altResult.state &&
-						Objects.equals(exception, altResult.exception);
-			}
-
-			AltResult(Subtask.State state) {
-				this(state, null);
-			}
-		}
-
+	private static final class SubtaskImpl<T> extends CancellationToken implements Subtask<T>, Runnable {
 		private final StructuredTaskScope<? super T> scope;
 		private final Callable<? extends T> task;
-		private volatile Object result;
+		private final long forkNanos; // only taken when recording metrics
+
+		// result and exception are written before state, and only read after it
+		private T result;
+		private Throwable exception;
+		private volatile Subtask.State state = State.UNAVAILABLE;
 
 		SubtaskImpl(StructuredTaskScope<? super T> scope, Callable<? extends T> task) {
+			super(scope.token);
 			this.scope = scope;
 			this.task = task;
+			this.forkNanos = (scope.stats != null) ? System.nanoTime() : 0L;
 		}
 
 		@Override
 		public void run() {
+			ScopeMetrics.ScopeStats stats = scope.stats;
+			boolean timed = (stats != null || FlightRecorderEvents.isEnabled());
+			long start = timed ? System.nanoTime() : 0L;
+			if (stats != null)
+				stats.forkToRun.record(start - forkNanos);
+
 			T result = null;
 			Throwable ex = null;
+			CancellationToken previous = CancellationToken.setCurrent(this);
 			try {
 				result = task.call();
 			} catch (Throwable e) {
 				ex = e;
+			} finally {
+				CancellationToken.setCurrent(previous);
 			}
+			long runNanos = timed ? System.nanoTime() - start : 0L;
+			if (stats != null)
+				stats.runTime.record(runNanos);
 
 			// nothing to do if task scope is shutdown
-			if (scope.isShutdown())
+			if (scope.isShutdown()) {
+				EventLog.shared().record(EventLog.Type.COMPLETE, scope.id, State.UNAVAILABLE.ordinal());
+				if (stats != null)
+					stats.unavailable.getAndIncrement();
+				if (FlightRecorderEvents.isEnabled())
+					FlightRecorderEvents.subtaskCompleted(scope.flock.name(), State.UNAVAILABLE, runNanos);
 				return;
+			}
 
 			// capture result or exception, invoke handleComplete
 			if (ex == null) {
-				this.result = (result != null) ? result : RESULT_NULL;
+				this.result = result;
+				this.state = State.SUCCESS;
 			} else {
-				this.result = new AltResult(State.FAILED, ex);
+				this.exception = ex;
+				this.state = State.FAILED;
 			}
+			EventLog.shared().record(EventLog.Type.COMPLETE, scope.id, state.ordinal());
+			if (stats != null)
+				(ex == null ? stats.succeeded : stats.failed).getAndIncrement();
+			if (FlightRecorderEvents.isEnabled())
+				FlightRecorderEvents.subtaskCompleted(scope.flock.name(), state, runNanos);
 			scope.handleComplete(this);
 		}
 
@@ -854,40 +1074,21 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 
 		@Override
 		public Subtask.State state() {
-			Object result = this.result;
-			if (result == null) {
-				return State.UNAVAILABLE;
-			} else if (result instanceof AltResult) {
-				var alt = (AltResult) result;
-				// null or failed
-				return alt.state();
-			} else {
-				return State.SUCCESS;
-			}
+			return state;
 		}
 
 		@Override
 		public T get() {
-			Object result = this.result;
-			if (result instanceof AltResult) {
-				if (result == RESULT_NULL) return null;
-			} else if (result != null) {
-				@SuppressWarnings("unchecked")
-				T r = (T) result;
-				return r;
-			}
+			if (state == State.SUCCESS)
+				return result;
 			throw new IllegalStateException(
 					"Result is unavailable or subtask did not complete successfully");
 		}
 
 		@Override
 		public Throwable exception() {
-			Object result = this.result;
-			if (result instanceof AltResult) {
-				var alt = (AltResult) result;
-				if (alt.state() == State.FAILED)
-					return alt.exception();
-			}
+			if (state == State.FAILED)
+				return exception;
 			throw new IllegalStateException(
 					"Exception is unavailable or subtask did not complete with exception");
 		}
@@ -904,8 +1105,7 @@ public abstract class StructuredTaskScope<T> implements AutoCloseable {
 					break;
 				case FAILED:
 				default: // prehistoric java is kinda bad and doesn't check for exhaustiveness
-					Throwable ex = ((AltResult) result).exception();
-					stateAsString = "[Failed: " + ex + "]";
+					stateAsString = "[Failed: " + exception + "]";
 					break;
 			}
 			return toIdentityString(this) + stateAsString;
@@ -26,12 +26,24 @@ package com.kuriosityrobotics.shuttle;
  */
 
 
+import java.lang.ref.Reference;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.stream.Stream;
 
 /**
  * A container of threads.
  */
 abstract class ThreadContainer extends StackableScope {
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<ThreadContainer, Set> CHILDREN =
+			AtomicReferenceFieldUpdater.newUpdater(ThreadContainer.class, Set.class, "children");
+
+	// set when registered with ThreadContainers; see ThreadContainers for the tree index
+	private volatile ThreadContainer parent;
+	private volatile Set<ThreadContainers.ContainerKey> children; // weak; created with the first child
 
 	/**
 	 * Creates a ThreadContainer.
@@ -46,7 +58,8 @@ abstract class ThreadContainer extends StackableScope {
 	 * Returns the parent of this container or null if this is the root container.
 	 */
 	public ThreadContainer parent() {
-		return ThreadContainers.parent(this);
+		ThreadContainer parent = this.parent;
+		return (parent != null) ? parent : ThreadContainers.parent(this);
 	}
 
 	/**
@@ -56,6 +69,32 @@ abstract class ThreadContainer extends StackableScope {
 		return ThreadContainers.children(this);
 	}
 
+	final void setParent(ThreadContainer parent) {
+		this.parent = parent;
+	}
+
+	final Stream<ThreadContainer> registeredChildren() {
+		Set<ThreadContainers.ContainerKey> children = this.children;
+		if (children == null)
+			return Stream.empty();
+		return children.stream().map(Reference::get).filter(Objects::nonNull);
+	}
+
+	final void addChild(ThreadContainers.ContainerKey child) {
+		Set<ThreadContainers.ContainerKey> children = this.children;
+		if (children == null) {
+			CHILDREN.compareAndSet(this, null, ConcurrentHashMap.newKeySet());
+			children = this.children;
+		}
+		children.add(child);
+	}
+
+	final void removeChild(ThreadContainers.ContainerKey child) {
+		Set<ThreadContainers.ContainerKey> children = this.children;
+		if (children != null)
+			children.remove(child);
+	}
+
 	/**
 	 * Return a count of the number of threads in this container.
 	 */
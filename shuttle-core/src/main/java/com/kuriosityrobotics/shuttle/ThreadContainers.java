@@ -2,7 +2,6 @@ package com.kuriosityrobotics.shuttle;
 
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
@@ -10,44 +9,57 @@ import java.util.stream.Stream;
 /**
  * This class consists exclusively of static methods to support debugging and
  * monitoring of threads.
+ * <p>
+ * The containers form a tree that is kept as an index: every container records its
+ * parent, and every parent the set of its children, when the container is registered
+ * (pushed).  Finding a parent or the children of a container is therefore a field read,
+ * and walking the tree is linear in its size.  The child sets are concurrent, so walks
+ * take no locks and see a weakly consistent snapshot of the tree.
+ * <p>
+ * Parents hold their children weakly.  A container that becomes unreachable without being
+ * closed, such as a flock left open by a thread that has terminated, is not kept alive by
+ * the root; its key is removed from its parent the next time a container is registered.
  */
 class ThreadContainers {
 	private static final JavaLangAccess JLA = SharedSecrets.getJavaLangAccess();
 
-	// the set of thread containers registered with this class
-	private static final Set<WeakReference<ThreadContainer>> CONTAINER_REGISTRY = ConcurrentHashMap.newKeySet();
-	private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+	// keys of containers that were collected without being deregistered
+	private static final ReferenceQueue<ThreadContainer> QUEUE = new ReferenceQueue<>();
 
 	private ThreadContainers() { }
 
 	/**
-	 * Expunge stale entries from the container registry.
-	 */
-	private static void expungeStaleEntries() {
-		Object key;
-		while ((key = QUEUE.poll()) != null) {
-			CONTAINER_REGISTRY.remove(key);
-		}
-	}
-
-	/**
-	 * Registers a thread container to be tracked this class, returning a key
-	 * that is used to remove it from the registry.
+	 * Registers a thread container that has just been pushed onto its owner's scope
+	 * stack.  Its parent is recorded, and it is added to the parent's children.  Returns
+	 * a key that is used to remove it from the tree.
 	 */
 	public static Object registerContainer(ThreadContainer container) {
 		expungeStaleEntries();
-		var ref = new WeakReference<>(container);
-		CONTAINER_REGISTRY.add(ref);
-		return ref;
+		ThreadContainer parent = parent(container);
+		container.setParent(parent);
+		if (parent == null)
+			return null;
+
+		ContainerKey key = new ContainerKey(container, parent);
+		parent.addChild(key);
+		return key;
 	}
 
 	/**
-	 * Removes a thread container from being tracked by specifying the key
-	 * returned when the thread container was registered.
+	 * Removes a thread container from the tree by specifying the key returned when the
+	 * thread container was registered.
 	 */
 	public static void deregisterContainer(Object key) {
-		assert key instanceof WeakReference;
-		CONTAINER_REGISTRY.remove(key);
+		if (key != null) {
+			ContainerKey k = (ContainerKey) key;
+			k.parent.removeChild(k);
+		}
+	}
+
+	private static void expungeStaleEntries() {
+		Object key;
+		while ((key = QUEUE.poll()) != null)
+			deregisterContainer(key);
 	}
 
 	/**
@@ -58,7 +70,8 @@ class ThreadContainers {
 	}
 
 	/**
-	 * Returns the parent of the given thread container.
+	 * Works out the parent of the given thread container, for containers that are yet
+	 * to be registered.
 	 *
 	 * If the container has an owner then its parent is the enclosing container when
 	 * nested, or the container that the owner is in, when not nested.
@@ -79,33 +92,12 @@ class ThreadContainers {
 		return (container != root) ? root : null;
 	}
 
-	private static <T> Stream<T> stream(Optional<T> opt) {
-		return opt.map(Stream::of).orElse(Stream.empty());
-	}
-
 	/**
-	 * Returns given thread container's "children".
+	 * Returns given thread container's "children": the container it encloses, if any,
+	 * and the top-most containers owned by the threads in it.
 	 */
 	static Stream<ThreadContainer> children(ThreadContainer container) {
-		// children of registered containers
-		Stream<ThreadContainer> s1 = CONTAINER_REGISTRY.stream()
-				.map(WeakReference::get)
-				.filter(c -> c != null && c.parent() == container);
-
-		// container may enclose another container
-		Stream<ThreadContainer> s2 = Stream.empty();
-		if (container.owner() != null) {
-			ThreadContainer next = next(container);
-			if (next != null)
-				s2 = Stream.of(next);
-		}
-
-		// the top-most container owned by the threads in the container
-		Stream<ThreadContainer> s3 = container.threads()
-				.map(t -> Optional.ofNullable(top(t)))
-				.flatMap(ThreadContainers::stream);
-
-		return Stream.concat(s1, Stream.concat(s2, s3));
+		return container.registeredChildren();
 	}
 
 	/**
@@ -124,37 +116,16 @@ class ThreadContainers {
 	}
 
 	/**
-	 * Returns the top-most thread container owned by the given thread.
+	 * A container's entry in its parent's children.  Removing it twice is harmless, so a
+	 * container can be deregistered both when it closes and when it has been collected.
 	 */
-	private static ThreadContainer top(Thread thread) {
-		StackableScope current = JLA.headStackableScope(thread);
-		ThreadContainer top = null;
-		while (current != null) {
-			if (current instanceof ThreadContainer) {
-				top = (ThreadContainer) current;
-			}
-			current = current.previous();
-		}
-		return top;
-	}
+	static final class ContainerKey extends WeakReference<ThreadContainer> {
+		final ThreadContainer parent;
 
-	/**
-	 * Returns the thread container that the given thread container encloses.
-	 */
-	private static ThreadContainer next(ThreadContainer container) {
-		StackableScope current = JLA.headStackableScope(container.owner());
-		if (current != null) {
-			ThreadContainer next = null;
-			while (current != null) {
-				if (current == container) {
-					return next;
-				} else if (current instanceof ThreadContainer) {
-					next = (ThreadContainer) current;
-				}
-				current = current.previous();
-			}
+		ContainerKey(ThreadContainer container, ThreadContainer parent) {
+			super(container, QUEUE);
+			this.parent = parent;
 		}
-		return null;
 	}
 
 	/**
@@ -28,15 +28,12 @@ package com.kuriosityrobotics.shuttle;
 import static com.kuriosityrobotics.shuttle.Util.toIdentityString;
 import static java.util.Objects.requireNonNull;
 
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.stream.Stream;
 
 /**
@@ -80,7 +77,9 @@ import java.util.stream.Stream;
 class ThreadFlock implements AutoCloseable {
 	private static final JavaLangAccess JLA = SharedSecrets.getJavaLangAccess();
 
-	private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+	private static final int MIN_SPIN_FRACTION = 16; // the adaptive spin never gets shorter than max / 16
+
+	private final ThreadFlock.ThreadSlots threads = new ThreadFlock.ThreadSlots();
 
 	// thread count, need to re-examine contention once API is stable
 	private final AtomicInteger threadCount = new AtomicInteger();
@@ -95,8 +94,15 @@ class ThreadFlock implements AutoCloseable {
 	// set by wakeup, cleared by awaitAll
 	private final AtomicBoolean permit = new AtomicBoolean();
 
-	ThreadFlock(String name) {
+	// how long awaitAll spins before parking: at most maxSpinNanos, halved after every
+	// wait that had to park and doubled after every wait that the spin was enough for
+	private final long maxSpinNanos;
+	private long spinNanos; // only accessed by the owner
+
+	ThreadFlock(String name, long maxSpinNanos) {
 		this.name = name;
+		this.maxSpinNanos = maxSpinNanos;
+		this.spinNanos = maxSpinNanos;
 		this.container = new ThreadFlock.ThreadContainerImpl(this);
 	}
 
@@ -116,19 +122,18 @@ class ThreadFlock implements AutoCloseable {
 
 		// signal owner when the count goes to zero
 		if (count == 0) {
-			LockSupport.unpark(owner());
+			Clock.current().unpark(owner());
 		}
 	}
 
 	/**
-	 * Invoked on the parent thread when starting {@code thread}.
+	 * Invoked on the parent thread when starting {@code thread}, before it is started.
 	 */
 	private void onStart(Thread thread) {
 		incrementThreadCount();
 		boolean done = false;
 		try {
-			boolean added = threads.add(thread);
-			assert added;
+			threads.add(thread);
 			if (shutdown)
 				throw new IllegalStateException("Shutdown");
 			done = true;
@@ -164,6 +169,31 @@ class ThreadFlock implements AutoCloseable {
 		return permit.getAndSet(newValue);
 	}
 
+	/**
+	 * Spins, for no longer than the given time, until there are no threads in the flock
+	 * or the permit is set.  Adapts the spin time to how often spinning succeeds.  Does not
+	 * spin under a clock other than the {@linkplain Clock#system() system clock}, whose
+	 * time does not pass while spinning.
+	 *
+	 * @return true if the threads finished or the permit was set while spinning
+	 */
+	private boolean spin(long maxNanos) {
+		long nanos = Math.min(spinNanos, maxNanos);
+		if (nanos <= 0L || Clock.current() != Clock.system())
+			return false;
+
+		long deadline = System.nanoTime() + nanos;
+		do {
+			if (threadCount.get() == 0 || permit.get()) {
+				spinNanos = Math.min(spinNanos * 2, maxSpinNanos);
+				return true;
+			}
+		} while (System.nanoTime() - deadline < 0L);
+
+		spinNanos = Math.max(spinNanos / 2, maxSpinNanos / MIN_SPIN_FRACTION);
+		return false;
+	}
+
 	/**
 	 * Throws WrongThreadException if the current thread is not the owner.
 	 */
@@ -201,7 +231,25 @@ class ThreadFlock implements AutoCloseable {
 	 * @return a new thread flock
 	 */
 	public static ThreadFlock open(String name) {
-		var flock = new ThreadFlock(name);
+		return open(name, 0L);
+	}
+
+	/**
+	 * Opens a new thread flock whose {@code awaitAll} methods spin for up to the given
+	 * time, waiting for the threads to finish, before parking.  Spinning saves a park and
+	 * unpark when threads finish almost immediately.  The spin adapts: it gets shorter
+	 * every time it turns out to be too short, down to a small fraction of the maximum,
+	 * so that flocks of long running threads waste little time spinning.
+	 *
+	 * @param name the name of the flock, can be null
+	 * @param maxSpinNanos the longest time to spin for, 0 to park straight away
+	 * @return a new thread flock
+	 * @see #open(String)
+	 */
+	public static ThreadFlock open(String name, long maxSpinNanos) {
+		if (maxSpinNanos < 0)
+			throw new IllegalArgumentException("'maxSpinNanos' is negative");
+		var flock = new ThreadFlock(name, maxSpinNanos);
 		flock.container.push();
 		return flock;
 	}
@@ -221,7 +269,11 @@ class ThreadFlock implements AutoCloseable {
 	}
 
 	/**
-	 * Starts the given unstarted thread in this flock.
+	 * Starts a thread in this flock to run the given task.
+	 *
+	 * <p> The thread is added to the flock by the current thread before it is
+	 * started, so this method returns as soon as the thread has been started and
+	 * does not wait for it to begin running.
 	 *
 	 * <p> The thread is started with the scoped value bindings that were captured
 	 * when opening the flock. The bindings must match the current thread's bindings.
@@ -231,9 +283,9 @@ class ThreadFlock implements AutoCloseable {
 	 *
 	 * @param threadFactory the thread factory
 	 * @param target the task to be run on the thread
-	 * @return the thread, started
+	 * @return the thread, started, or null if the thread factory rejected the task
 	 * @throws IllegalStateException       if this flock is shutdown or closed
-	 * @throws IllegalThreadStateException if the given thread was already started
+	 * @throws IllegalThreadStateException if the factory returned a thread that was already started
 	 * @throws WrongThreadException        if the current thread is not the owner or a thread
 	 *                                     contained in the flock
 	 * @throws StructureViolationException if the current
@@ -241,45 +293,49 @@ class ThreadFlock implements AutoCloseable {
 	 */
 	public Thread start(ThreadFactory threadFactory, Runnable target) {
 		ensureOwnerOrContainsThread();
-		// hook thread
-		var startLatch = new CountDownLatch(1);
-		var initException = new AtomicReference<Throwable>();
-
-		Runnable wrappedTarget = () -> {
-			boolean started = false;
+		Thread thread = threadFactory.newThread(() -> {
 			try {
-				onStart(Thread.currentThread());
-
-				started = true;
-				startLatch.countDown();
-
 				target.run();
-			} catch (Throwable e) {
-				if (!started)
-					initException.set(e);
-				else
-					throw e;
 			} finally {
-				if (started)
-					onExit(Thread.currentThread());
-
-				startLatch.countDown();
+				container.onExit(Thread.currentThread());
 			}
-		};
+		});
+		if (thread == null)
+			return null;
 
-		Thread thread = threadFactory.newThread(wrappedTarget);
+		// the thread is added to the flock here, before it starts, so there is
+		// nothing to wait for once it has been started
 		JLA.start(thread, container);
-		try {
-			startLatch.await();
-		} catch (InterruptedException e) {
-			throw new RuntimeException(e);
-		}
-
-		if (initException.get() != null)
-			System.out.println("ERROR in thread flock: " + initException.get());
 		return thread;
 	}
 
+	/**
+	 * Starts the given task on a worker from the given pool, in this flock.  The worker
+	 * is a member of this flock until the task completes.
+	 *
+	 * <p> This method may only be invoked by the flock owner or threads {@linkplain
+	 * #containsThread(Thread) contained} in the flock.
+	 *
+	 * @param pool the worker pool
+	 * @param target the task to be run on the worker
+	 * @return the worker thread running the task
+	 * @throws IllegalStateException if this flock is shutdown or closed
+	 * @throws WrongThreadException  if the current thread is not the owner or a thread
+	 *                               contained in the flock
+	 */
+	public Thread start(WorkerPool pool, Runnable target) {
+		ensureOwnerOrContainsThread();
+		return pool.execute(container, target);
+	}
+
+	/**
+	 * Interrupts the given thread if it is still running in this flock.  A pooled
+	 * worker that has already finished its task in this flock is not interrupted.
+	 */
+	void interrupt(Thread thread) {
+		WorkerPool.interrupt(thread, container);
+	}
+
 	/**
 	 * Shutdown this flock so that no new threads can be started, existing threads
 	 * in the flock will continue to run. This method is a no-op if the flock is
@@ -320,8 +376,9 @@ class ThreadFlock implements AutoCloseable {
 		if (getAndSetPermit(false))
 			return (threadCount.get() == 0);
 
+		spin(Long.MAX_VALUE);
 		while (threadCount.get() > 0 && !permit.get()) {
-			LockSupport.park();
+			Clock.current().park(this);
 			if (Thread.interrupted())
 				throw new InterruptedException();
 		}
@@ -351,19 +408,29 @@ class ThreadFlock implements AutoCloseable {
 	public boolean awaitAll(Duration timeout)
 			throws InterruptedException, TimeoutException {
 		requireNonNull(timeout);
+		return awaitAll(timeout.toNanos());
+	}
+
+	/**
+	 * Wait, up to the given number of nanoseconds, for all threads in the flock to finish
+	 * executing their tasks, like {@link #awaitAll(Duration)}.
+	 */
+	public boolean awaitAll(long nanos)
+			throws InterruptedException, TimeoutException {
 		ensureOwner();
 
 		if (getAndSetPermit(false))
 			return (threadCount.get() == 0);
 
-		long startNanos = System.nanoTime();
-		long nanos = timeout.toNanos();
-		long remainingNanos = nanos;
+		Clock clock = Clock.current();
+		long startNanos = clock.nanoTime();
+		spin(nanos);
+		long remainingNanos = nanos - (clock.nanoTime() - startNanos);
 		while (threadCount.get() > 0 && remainingNanos > 0 && !permit.get()) {
-			LockSupport.parkNanos(remainingNanos);
+			clock.parkNanos(this, remainingNanos);
 			if (Thread.interrupted())
 				throw new InterruptedException();
-			remainingNanos = nanos - (System.nanoTime() - startNanos);
+			remainingNanos = nanos - (clock.nanoTime() - startNanos);
 		}
 
 		boolean done = (threadCount.get() == 0);
@@ -389,7 +456,7 @@ class ThreadFlock implements AutoCloseable {
 	public void wakeup() {
 		ensureOwnerOrContainsThread();
 		if (!getAndSetPermit(true) && Thread.currentThread() != owner()) {
-			LockSupport.unpark(owner());
+			Clock.current().unpark(owner());
 		}
 	}
 
@@ -430,7 +497,7 @@ class ThreadFlock implements AutoCloseable {
 		boolean interrupted = false;
 		try {
 			while (threadCount.get() > 0) {
-				LockSupport.park();
+				Clock.current().park(this);
 				if (Thread.interrupted()) {
 					interrupted = true;
 				}
@@ -469,7 +536,7 @@ class ThreadFlock implements AutoCloseable {
 	 * stream.
 	 */
 	public Stream<Thread> threads() {
-		return threads.stream().filter(Thread::isAlive);
+		return threads.snapshot().filter(Thread::isAlive);
 	}
 
 	/**
@@ -508,6 +575,77 @@ class ThreadFlock implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * The threads in a flock. Threads are kept in slots that are reused after a thread
+	 * exits, so adding and removing a thread does not allocate; a new segment of slots
+	 * is only allocated when more threads run in the flock at once than ever before.
+	 * A thread may occupy more than one slot, as a pooled worker can rejoin a flock
+	 * just before its exit from the previous task is recorded.
+	 */
+	private static final class ThreadSlots {
+		private static final int SEGMENT_SIZE = 16;
+
+		private final ThreadFlock.ThreadSlots.Segment head = new ThreadFlock.ThreadSlots.Segment();
+
+		void add(Thread thread) {
+			ThreadFlock.ThreadSlots.Segment segment = head;
+			while (true) {
+				AtomicReferenceArray<Thread> slots = segment.slots;
+				for (int i = 0; i < SEGMENT_SIZE; i++) {
+					if (slots.get(i) == null && slots.compareAndSet(i, null, thread))
+						return;
+				}
+				segment = segment.next();
+			}
+		}
+
+		boolean remove(Thread thread) {
+			for (var segment = head; segment != null; segment = segment.next) {
+				AtomicReferenceArray<Thread> slots = segment.slots;
+				for (int i = 0; i < SEGMENT_SIZE; i++) {
+					if (slots.get(i) == thread) {
+						slots.set(i, null);
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		Stream<Thread> snapshot() {
+			Stream.Builder<Thread> builder = Stream.builder();
+			for (var segment = head; segment != null; segment = segment.next) {
+				AtomicReferenceArray<Thread> slots = segment.slots;
+				for (int i = 0; i < SEGMENT_SIZE; i++) {
+					Thread thread = slots.get(i);
+					if (thread != null)
+						builder.add(thread);
+				}
+			}
+			return builder.build().distinct();
+		}
+
+		private static final class Segment {
+			private static final AtomicReferenceFieldUpdater<Segment, Segment> NEXT =
+					AtomicReferenceFieldUpdater.newUpdater(Segment.class, Segment.class, "next");
+
+			final AtomicReferenceArray<Thread> slots = new AtomicReferenceArray<>(SEGMENT_SIZE);
+			volatile Segment next;
+
+			/**
+			 * Returns the next segment, appending one if this is the last.
+			 */
+			Segment next() {
+				Segment next = this.next;
+				if (next == null) {
+					NEXT.compareAndSet(this, null, new Segment());
+					next = this.next;
+				}
+				return next;
+			}
+		}
+	}
+
 	/**
 	 * A ThreadContainer backed by a ThreadFlock.
 	 */
@@ -523,14 +661,9 @@ class ThreadFlock implements AutoCloseable {
 
 		@Override
 		public ThreadFlock.ThreadContainerImpl push() {
-			// Virtual threads in the root containers are not tracked so need
-			// to register container to ensure that it is found
-			var thread = (Thread) Thread.currentThread();
-			if (JLA.threadContainer(thread) == ThreadContainers.root()) {
-				this.key = ThreadContainers.registerContainer(this);
-			}
-
 			super.push();
+			// add to the tree once on the stack, where the enclosing container can be found
+			this.key = ThreadContainers.registerContainer(this);
 			return this;
 		}
 
@@ -572,6 +705,16 @@ class ThreadFlock implements AutoCloseable {
 			}
 		}
 
+		@Override
+		public void onStart(Thread thread) {
+			flock.onStart(thread);
+		}
+
+		@Override
+		public void onExit(Thread thread) {
+			flock.onExit(thread);
+		}
+
 		@Override
 		public long threadCount() {
 			return flock.threadCount();
@@ -0,0 +1,149 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock whose time only moves when it is {@linkplain #advance(Duration) advanced}, for
+ * tests and simulators.  Threads waiting on it stay parked until it reaches their
+ * deadline, so thirty seconds of servo and motor waits can run in a few milliseconds:
+ * <pre>{@code
+ *     VirtualClock clock = new VirtualClock();
+ *     Clock.set(clock);
+ *     Thread routine = new Thread(autonomous::run);
+ *     routine.start();
+ *     while (routine.isAlive()) {
+ *         if (!clock.advanceToNextDeadline())
+ *             Thread.yield(); // the routine is running, not waiting
+ *     }
+ * }</pre>
+ */
+public final class VirtualClock extends Clock {
+	private volatile long now; // written while holding this
+
+	// threads waiting for the clock to reach a deadline, soonest first; guarded by this
+	private final PriorityQueue<Sleeper> sleepers = new PriorityQueue<>();
+	private long nextSequence; // keeps sleepers with equal deadlines in order; guarded by this
+
+	/**
+	 * Creates a virtual clock that starts at the current real time, so that
+	 * {@link Instant#now()} carries on from where it was.
+	 */
+	public VirtualClock() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * Creates a virtual clock that starts at the given time.
+	 */
+	public VirtualClock(long startNanos) {
+		this.now = startNanos;
+	}
+
+	@Override
+	public long nanoTime() {
+		return now;
+	}
+
+	@Override
+	public void parkNanos(Object blocker, long nanos) {
+		if (nanos <= 0L)
+			return;
+
+		Sleeper sleeper;
+		synchronized (this) {
+			long deadline = now + nanos;
+			if (deadline < now)
+				deadline = Long.MAX_VALUE; // saturate, like parkNanos(Long.MAX_VALUE)
+			sleeper = new Sleeper(Thread.currentThread(), deadline, nextSequence++);
+			sleepers.add(sleeper);
+		}
+		try {
+			LockSupport.park(blocker);
+		} finally {
+			synchronized (this) {
+				sleepers.remove(sleeper);
+			}
+		}
+	}
+
+	/**
+	 * Moves the clock forward by the given duration, waking up the threads whose waits
+	 * end by then.
+	 */
+	public void advance(Duration duration) {
+		long nanos = duration.toNanos();
+		if (nanos < 0L)
+			throw new IllegalArgumentException("'duration' is negative");
+		List<Thread> woken;
+		synchronized (this) {
+			woken = advanceTo(now + nanos);
+		}
+		unparkAll(woken);
+	}
+
+	/**
+	 * Moves the clock forward to the earliest deadline any thread is waiting for, and
+	 * wakes up the threads waiting for it.
+	 *
+	 * @return false if no thread is waiting on this clock
+	 */
+	public boolean advanceToNextDeadline() {
+		List<Thread> woken;
+		synchronized (this) {
+			Sleeper first = sleepers.peek();
+			if (first == null)
+				return false;
+			woken = advanceTo(Math.max(now, first.deadline));
+		}
+		unparkAll(woken);
+		return true;
+	}
+
+	/**
+	 * Returns the number of threads waiting on this clock.
+	 */
+	public synchronized int waitingThreads() {
+		return sleepers.size();
+	}
+
+	// must hold this
+	private List<Thread> advanceTo(long time) {
+		now = time;
+		List<Thread> woken = new ArrayList<>();
+		Sleeper first;
+		while ((first = sleepers.peek()) != null && first.deadline <= time)
+			woken.add(sleepers.poll().thread);
+		return woken;
+	}
+
+	private static void unparkAll(List<Thread> threads) {
+		for (Thread thread : threads)
+			LockSupport.unpark(thread);
+	}
+
+	@Override
+	public String toString() {
+		return "VirtualClock[" + now + "ns]";
+	}
+
+	private static final class Sleeper implements Comparable<Sleeper> {
+		final Thread thread;
+		final long deadline;
+		final long sequence;
+
+		Sleeper(Thread thread, long deadline, long sequence) {
+			this.thread = thread;
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Sleeper other) {
+			int c = Long.compare(deadline, other.deadline);
+			return (c != 0) ? c : Long.compare(sequence, other.sequence);
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of reusable worker threads that subtasks can be forked onto.
+ * <p>
+ * A worker runs one task at a time, and while it does, it is a member of the thread
+ * container (flock) that the task was started in: it is counted by the flock, it is found
+ * by {@code containsThread}, and it is interrupted if the owning scope shuts down.  When
+ * the task finishes, the worker leaves the flock, any interrupt aimed at that flock is
+ * discarded, and the worker parks until it is handed another task, possibly from a
+ * different scope.
+ * <p>
+ * Workers that stay idle for longer than the pool's keep-alive time terminate.  Worker
+ * threads are daemon threads.
+ */
+public final class WorkerPool {
+	private static final JavaLangAccess JLA = SharedSecrets.getJavaLangAccess();
+	private static final WorkerPool COMMON = new WorkerPool("shuttle-worker", Duration.ofSeconds(60));
+
+	private final String name;
+	private final long keepAliveNanos;
+	private final AtomicInteger threadNumber = new AtomicInteger();
+
+	private final ReentrantLock idleLock = new ReentrantLock();
+	private final ArrayDeque<Worker> idle = new ArrayDeque<>(); // guarded by idleLock, most recently used first
+
+	/**
+	 * Creates a new worker pool.
+	 *
+	 * @param name      the prefix of worker thread names
+	 * @param keepAlive how long an idle worker waits for a new task before terminating
+	 */
+	public WorkerPool(String name, Duration keepAlive) {
+		if (keepAlive.toNanos() < 0)
+			throw new IllegalArgumentException("Negative keep-alive time");
+		this.name = name;
+		this.keepAliveNanos = keepAlive.toNanos();
+	}
+
+	/**
+	 * {@return the pool shared by all scopes that do not specify one}
+	 */
+	public static WorkerPool common() {
+		return COMMON;
+	}
+
+	/**
+	 * {@return the number of workers currently parked and waiting for a task}
+	 */
+	public int idleCount() {
+		idleLock.lock();
+		try {
+			return idle.size();
+		} finally {
+			idleLock.unlock();
+		}
+	}
+
+	/**
+	 * Runs the task on an idle worker, or on a new worker if none is idle.  The worker is
+	 * added to the container before this method returns.
+	 *
+	 * @return the worker running the task
+	 * @throws IllegalStateException if the container is shut down
+	 */
+	Thread execute(ThreadContainer container, Runnable task) {
+		Worker worker = takeIdle();
+		boolean fresh = (worker == null);
+		if (fresh)
+			worker = new Worker(this, name + "-" + threadNumber.incrementAndGet());
+
+		worker.bind(container);
+		try {
+			container.onStart(worker);
+		} catch (Throwable e) {
+			worker.unbind();
+			if (!fresh)
+				release(worker);
+			throw e;
+		}
+
+		worker.task = task;
+		if (fresh) {
+			try {
+				worker.start();
+			} catch (Throwable e) {
+				worker.task = null;
+				worker.unbind();
+				container.onExit(worker);
+				throw e;
+			}
+		} else {
+			LockSupport.unpark(worker);
+		}
+		return worker;
+	}
+
+	/**
+	 * Interrupts the thread if it is still running a task in the given container.
+	 * Threads that are not pool workers are interrupted unconditionally.
+	 */
+	static void interrupt(Thread thread, ThreadContainer container) {
+		if (thread instanceof Worker) {
+			((Worker) thread).interrupt(container);
+		} else {
+			thread.interrupt();
+		}
+	}
+
+	private Worker takeIdle() {
+		idleLock.lock();
+		try {
+			return idle.pollFirst();
+		} finally {
+			idleLock.unlock();
+		}
+	}
+
+	private void release(Worker worker) {
+		idleLock.lock();
+		try {
+			idle.addFirst(worker);
+		} finally {
+			idleLock.unlock();
+		}
+	}
+
+	/**
+	 * @return true if the worker was idle and may terminate, false if a task is
+	 * already being handed to it
+	 */
+	private boolean retire(Worker worker) {
+		idleLock.lock();
+		try {
+			return idle.removeFirstOccurrence(worker);
+		} finally {
+			idleLock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return name + "/" + Util.toIdentityString(this);
+	}
+
+	private static final class Worker extends ShuttleThread {
+		private final WorkerPool pool;
+
+		// held when changing containers, so that a flock never interrupts a worker
+		// that has already moved on to another flock's task
+		private final ReentrantLock interruptLock = new ReentrantLock();
+		private ThreadContainer container; // guarded by interruptLock
+
+		private volatile Runnable task;
+
+		Worker(WorkerPool pool, String name) {
+			super(name);
+			this.pool = pool;
+			setDaemon(true);
+		}
+
+		void bind(ThreadContainer container) {
+			interruptLock.lock();
+			try {
+				this.container = container;
+			} finally {
+				interruptLock.unlock();
+			}
+			JLA.setThreadContainer(this, container);
+		}
+
+		/**
+		 * Leaves the current container and discards any interrupt that was meant for it.
+		 */
+		void unbind() {
+			JLA.setThreadContainer(this, null);
+			interruptLock.lock();
+			try {
+				this.container = null;
+				if (this == Thread.currentThread())
+					Thread.interrupted();
+			} finally {
+				interruptLock.unlock();
+			}
+		}
+
+		void interrupt(ThreadContainer container) {
+			interruptLock.lock();
+			try {
+				if (this.container == container)
+					interrupt();
+			} finally {
+				interruptLock.unlock();
+			}
+		}
+
+		@Override
+		public void run() {
+			Runnable task;
+			while ((task = awaitTask()) != null) {
+				try {
+					task.run();
+				} catch (Throwable e) {
+					dispatchUncaughtException(e);
+				} finally {
+					finish();
+				}
+			}
+		}
+
+		private void finish() {
+			ThreadContainer container;
+			interruptLock.lock();
+			try {
+				container = this.container;
+			} finally {
+				interruptLock.unlock();
+			}
+
+			task = null;
+			if (StackableScope.head() != null)
+				StackableScope.popAll(); // the task left scopes open
+
+			unbind();
+			// back in the pool before the flock sees the exit, so that an owner that
+			// joins and then forks again picks this worker up
+			pool.release(this);
+			container.onExit(this);
+		}
+
+		/**
+		 * Parks until a task is handed over.
+		 *
+		 * @return the task, or null if the keep-alive time elapsed and this worker retired
+		 */
+		private Runnable awaitTask() {
+			long deadline = System.nanoTime() + pool.keepAliveNanos;
+			Runnable task;
+			while ((task = this.task) == null) {
+				if (isInterrupted())
+					clearStrayInterrupt();
+
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					if (pool.retire(this))
+						return null;
+
+					// a fork claimed this worker just before it could retire
+					while ((task = this.task) == null)
+						LockSupport.park(this);
+					return task;
+				}
+				LockSupport.parkNanos(this, remaining);
+			}
+			return task;
+		}
+
+		/**
+		 * Clears an interrupt received while idle, unless it was meant for a task that
+		 * is being handed over.
+		 */
+		private void clearStrayInterrupt() {
+			interruptLock.lock();
+			try {
+				if (container == null)
+					Thread.interrupted();
+			} finally {
+				interruptLock.unlock();
+			}
+		}
+
+		private void dispatchUncaughtException(Throwable e) {
+			try {
+				getUncaughtExceptionHandler().uncaughtException(this, e);
+			} catch (Throwable ignore) { }
+		}
+	}
+}
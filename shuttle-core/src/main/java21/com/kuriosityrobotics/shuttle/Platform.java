@@ -0,0 +1,32 @@
+package com.kuriosityrobotics.shuttle;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Defaults that depend on the Java runtime.
+ * <p>
+ * This is the Java 21+ version, packaged under {@code META-INF/versions/21}, which forks
+ * subtasks onto virtual threads.
+ */
+final class Platform {
+	private static final ThreadFactory VIRTUAL_THREADS = Thread.ofVirtual()
+			.name("shuttle-virtual-", 0)
+			.factory();
+
+	private Platform() {}
+
+	/**
+	 * Returns the thread factory used by task scopes that are not given one.
+	 */
+	static ThreadFactory defaultThreadFactory() {
+		return VIRTUAL_THREADS;
+	}
+
+	/**
+	 * Returns true if the default thread factory creates virtual threads, which are
+	 * cheap enough that pooling them is pointless.
+	 */
+	static boolean hasVirtualThreads() {
+		return true;
+	}
+}
@@ -0,0 +1,215 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CancellationTokenTest {
+	@Test
+	void testCallbacks() {
+		CancellationToken token = new CancellationToken();
+		AtomicInteger runs = new AtomicInteger();
+		token.onCancel(runs::incrementAndGet);
+		token.onCancel(runs::incrementAndGet).close();
+		assertFalse(token.isCancelled());
+
+		token.cancel();
+		token.cancel();
+		assertTrue(token.isCancelled());
+		assertEquals(1, runs.get());
+
+		token.onCancel(runs::incrementAndGet); // runs straight away
+		assertEquals(2, runs.get());
+		CancelledException e = assertThrows(CancelledException.class, token::throwIfCancelled);
+		assertEquals(0, e.getStackTrace().length);
+	}
+
+	@Test
+	void testChildCancelledWithParent() {
+		CancellationToken parent = new CancellationToken();
+		CancellationToken child = new CancellationToken(parent);
+		CancellationToken sibling = new CancellationToken(parent);
+		AtomicBoolean ran = new AtomicBoolean();
+		child.onCancel(() -> ran.set(true));
+
+		sibling.cancel();
+		assertFalse(parent.isCancelled());
+		assertFalse(child.isCancelled());
+
+		parent.cancel();
+		assertTrue(child.isCancelled());
+		assertTrue(ran.get());
+	}
+
+	@Test
+	void testRootTokenCannotBeCancelled() {
+		assertFalse(CancellationToken.current().isCancelled());
+		assertThrows(UnsupportedOperationException.class, CancellationToken.current()::cancel);
+	}
+
+	@Test
+	void testSleepWakesOnCancel() throws InterruptedException {
+		CancellationToken token = new CancellationToken();
+		CountDownLatch sleeping = new CountDownLatch(1);
+		AtomicBoolean cancelled = new AtomicBoolean();
+
+		Thread t = new Thread(() -> {
+			sleeping.countDown();
+			try {
+				token.sleep(Duration.ofSeconds(10));
+			} catch (InterruptedException e) {
+				cancelled.set(!Thread.currentThread().isInterrupted());
+			}
+		});
+		t.start();
+		sleeping.await();
+
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(2), () -> {
+			token.cancel();
+			t.join();
+		});
+		assertTrue(cancelled.get());
+	}
+
+	@Test
+	void testSleepUntilNeverWakesEarly() throws InterruptedException {
+		CancellationToken token = new CancellationToken();
+		for (int i = 0; i < 20; i++) {
+			long deadline = Instant.nowNanos() + 5_000_000L;
+			token.sleepUntilNanos(deadline, 2_000_000L);
+			long late = -Instant.nanosUntil(deadline);
+			assertTrue(late >= 0);
+			assertTrue(late < 50_000_000L, "woke up " + late + "ns late");
+		}
+		assertThrows(IllegalArgumentException.class, () -> token.sleepUntilNanos(Instant.nowNanos(), -1));
+	}
+
+	@Test
+	void testSpinningSleepWakesOnCancel() throws InterruptedException {
+		CancellationToken token = new CancellationToken();
+		CountDownLatch sleeping = new CountDownLatch(1);
+		AtomicBoolean cancelled = new AtomicBoolean();
+
+		Thread t = new Thread(() -> {
+			sleeping.countDown();
+			try {
+				// spins for the whole ten seconds
+				token.sleepUntil(Instant.now().add(Duration.ofSeconds(10)), Duration.ofSeconds(10));
+			} catch (CancelledException e) {
+				cancelled.set(true);
+			} catch (InterruptedException ignored) { }
+		});
+		t.start();
+		sleeping.await();
+
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(2), () -> {
+			token.cancel();
+			t.join();
+		});
+		assertTrue(cancelled.get());
+	}
+
+	@Test
+	void testShutdownCancelsWithoutInterrupting() throws InterruptedException {
+		var config = StructuredTaskScope.Configuration.defaults().withInterruptOnShutdown(false);
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean sawCancellation = new AtomicBoolean();
+		AtomicBoolean interrupted = new AtomicBoolean();
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, config)) {
+			scope.fork(() -> {
+				started.countDown();
+				CancellationToken token = CancellationToken.current();
+				while (!token.isCancelled())
+					Thread.yield();
+				sawCancellation.set(true);
+				interrupted.set(Thread.currentThread().isInterrupted());
+			});
+
+			started.await();
+			assertFalse(scope.token().isCancelled());
+			scope.shutdown();
+			assertTrue(scope.token().isCancelled());
+			scope.join();
+		}
+
+		assertTrue(sawCancellation.get());
+		assertFalse(interrupted.get());
+		assertFalse(CancellationToken.current().isCancelled()); // the owner's own token is unaffected
+	}
+
+	@Test
+	void testLockPreemptsByCancelling() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock(false, false);
+		CountDownLatch locked = new CountDownLatch(1);
+		AtomicBoolean cancelled = new AtomicBoolean();
+		AtomicBoolean interrupted = new AtomicBoolean();
+
+		try (var scope = HardwareTaskScope.open()) {
+			scope.fork(() -> {
+				lock.lock();
+				try {
+					locked.countDown();
+					CancellationToken.current().sleep(Duration.ofSeconds(10));
+				} catch (PreemptedException e) {
+					cancelled.set(CancellationToken.current().isCancelled());
+					interrupted.set(Thread.currentThread().isInterrupted());
+				} finally {
+					lock.unlock();
+				}
+			});
+
+			locked.await();
+			assertTimeout(java.time.Duration.ofSeconds(2), () -> {
+				lock.lock();
+				lock.unlock();
+			});
+			scope.join();
+		}
+
+		assertTrue(cancelled.get());
+		assertFalse(interrupted.get());
+	}
+
+	@Test
+	void testPreemptionEndsWithTheHold() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock(false, false);
+		CountDownLatch locked = new CountDownLatch(1);
+		AtomicBoolean preempted = new AtomicBoolean();
+		AtomicBoolean cancelledAfterUnlock = new AtomicBoolean(true);
+
+		try (var scope = HardwareTaskScope.open()) {
+			scope.fork(() -> {
+				CancellationToken subtask = CancellationToken.current();
+				lock.lock();
+				try {
+					locked.countDown();
+					CancellationToken.current().sleep(Duration.ofSeconds(10));
+				} catch (PreemptedException e) {
+					preempted.set(true);
+				} finally {
+					lock.unlock();
+				}
+
+				// the subtask carries on under its own token, which the lock left alone
+				assertSame(subtask, CancellationToken.current());
+				cancelledAfterUnlock.set(subtask.isCancelled());
+				CancellationToken.current().sleep(Duration.ofMillis(1));
+			});
+
+			locked.await();
+			assertTimeout(java.time.Duration.ofSeconds(2), () -> {
+				lock.lock();
+				lock.unlock();
+			});
+			scope.join();
+		}
+
+		assertTrue(preempted.get());
+		assertFalse(cancelledAfterUnlock.get());
+	}
+}
@@ -38,4 +38,16 @@ class DurationTest {
 		assertNotEquals(d, d2);
 		assertNotEquals(d2, d);
 	}
+
+	@Test
+	public void testZeroIsCached() {
+		assertSame(Duration.ZERO, Duration.ofNanos(0));
+		assertSame(Duration.ZERO, Duration.ofMillis(0));
+		assertSame(Duration.ZERO, Duration.ofSeconds(0));
+		assertSame(Duration.ZERO, Duration.ZERO.negated());
+
+		Instant now = Instant.now();
+		assertSame(now, now.add(Duration.ZERO));
+		assertSame(Duration.ZERO, Duration.between(now, now));
+	}
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class EventLogTest {
+	@Test
+	void testRecordAndWrapAround() {
+		EventLog log = new EventLog(4);
+		assertTrue(log.entries().isEmpty());
+
+		for (int i = 0; i < 6; i++)
+			log.record(EventLog.Type.FORK, 7, i);
+
+		List<EventLog.Entry> entries = log.entries();
+		assertEquals(4, entries.size());
+		for (int i = 0; i < 4; i++) {
+			EventLog.Entry entry = entries.get(i);
+			assertEquals(EventLog.Type.FORK, entry.type());
+			assertEquals(7, entry.subject());
+			assertEquals(i + 2, entry.detail()); // the oldest two were overwritten
+			assertEquals((int) Thread.currentThread().getId(), entry.threadId());
+		}
+		assertTrue(entries.get(0).timeNanos() <= entries.get(3).timeNanos());
+
+		assertThrows(IllegalArgumentException.class, () -> new EventLog(3));
+	}
+
+	@Test
+	void testDumpRoundTrip() throws IOException {
+		EventLog log = new EventLog(8);
+		log.record(EventLog.Type.PREEMPT, 1, -1);
+		log.record(EventLog.Type.TIMEOUT, Integer.MAX_VALUE, 5000);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		log.dump(out);
+		assertEquals(12 + 2 * 21, out.size());
+
+		List<EventLog.Entry> read = EventLog.read(new ByteArrayInputStream(out.toByteArray()));
+		List<EventLog.Entry> expected = log.entries();
+		assertEquals(expected.size(), read.size());
+		for (int i = 0; i < read.size(); i++)
+			assertEquals(expected.get(i).toString(), read.get(i).toString());
+
+		assertThrows(IOException.class, () -> EventLog.read(new ByteArrayInputStream(new byte[12])));
+	}
+
+	@Test
+	void testScopeLifecycleIsRecorded() throws InterruptedException {
+		try (var scope = HardwareTaskScope.open()) {
+			scope.fork(() -> { });
+			scope.join();
+		}
+
+		// the most recent scope this thread opened
+		List<EventLog.Entry> entries = EventLog.shared().entries();
+		int open = -1;
+		for (int i = 0; i < entries.size(); i++) {
+			EventLog.Entry entry = entries.get(i);
+			if (entry.type() == EventLog.Type.SCOPE_OPEN && entry.threadId() == (int) Thread.currentThread().getId())
+				open = i;
+		}
+		assertNotEquals(-1, open);
+
+		int subject = entries.get(open).subject();
+		List<EventLog.Type> types = new ArrayList<>();
+		for (EventLog.Entry entry : entries.subList(open, entries.size())) {
+			if (entry.subject() == subject && entry.type().ordinal() <= EventLog.Type.SCOPE_CLOSE.ordinal())
+				types.add(entry.type());
+		}
+		assertEquals(List.of(EventLog.Type.SCOPE_OPEN, EventLog.Type.FORK, EventLog.Type.COMPLETE,
+				EventLog.Type.SHUTDOWN, EventLog.Type.SCOPE_CLOSE), types);
+	}
+}
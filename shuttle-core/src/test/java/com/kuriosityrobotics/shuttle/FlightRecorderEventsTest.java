@@ -0,0 +1,32 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+
+class FlightRecorderEventsTest {
+	@Test
+	void testEnabledOnlyWhileRecordingTheEvents() {
+		assumeTrue(FlightRecorder.isAvailable());
+		assertFalse(FlightRecorderEvents.isEnabled());
+
+		try (Recording other = new Recording()) {
+			// events are enabled unless a recording's settings say otherwise
+			for (String event : new String[] {"Fork", "Subtask", "Join", "Shutdown", "Preemption"})
+				other.disable("com.kuriosityrobotics.shuttle." + event);
+			other.start();
+			assertFalse(FlightRecorderEvents.isEnabled()); // recording, but not these events
+
+			try (Recording recording = new Recording()) {
+				recording.enable("com.kuriosityrobotics.shuttle.Fork");
+				recording.start();
+				assertTrue(FlightRecorderEvents.isEnabled());
+				recording.stop();
+			}
+			assertFalse(FlightRecorderEvents.isEnabled());
+		}
+	}
+}
@@ -1,11 +1,15 @@
 package com.kuriosityrobotics.shuttle;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class HardwareTaskScopeTest {
 	@Test
@@ -133,4 +137,132 @@ public class HardwareTaskScopeTest {
 			assertDoesNotThrow(scope::join);
 		}
 	}
+
+	@Test
+	void testPreemptionIsNotFailure() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		CountDownLatch locked = new CountDownLatch(1);
+
+		try (HardwareTaskScope<InterruptedException> scope = HardwareTaskScope.open()) {
+			var preempted = scope.fork(() -> {
+				lock.lock();
+				try {
+					locked.countDown();
+					Thread.sleep(10000); // interrupted, and its hold on the lock cancelled, by the preemption
+				} finally {
+					lock.unlock();
+				}
+			});
+			var unaffected = scope.fork(() -> Thread.sleep(100));
+
+			locked.await();
+			lock.lock();
+			lock.unlock();
+
+			assertDoesNotThrow(scope::join);
+			assertFalse(scope.isShutdown());
+			assertInstanceOf(InterruptedException.class, preempted.exception());
+			assertEquals(StructuredTaskScope.Subtask.State.SUCCESS, unaffected.state());
+		}
+	}
+
+	@Test
+	void testFailureAfterPreemptionIsFailure() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		CountDownLatch locked = new CountDownLatch(1);
+
+		try (HardwareTaskScope<InterruptedException> scope = HardwareTaskScope.open()) {
+			scope.fork(() -> {
+				lock.lock();
+				try {
+					locked.countDown();
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					// preempted, which this subtask recovers from
+				} finally {
+					lock.unlock();
+				}
+
+				lock.lock(); // a new hold, which is not preempted
+				lock.unlock();
+				throw new InterruptedException("test");
+			});
+
+			locked.await();
+			lock.lockWithPriority(1); // so that the subtask's next lock() cannot preempt this thread
+			lock.unlock();
+
+			assertThrows(InterruptedException.class, scope::join);
+			assertTrue(scope.isShutdown());
+		}
+	}
+
+	@Test
+	void testSteadyStateForkDoesNotAllocate() throws InterruptedException {
+		assertForkAllocatesOnlySubtask(StructuredTaskScope.Configuration.defaults());
+	}
+
+	@Test
+	void testSteadyStateForkWithMetricsDoesNotAllocate() throws InterruptedException {
+		assertForkAllocatesOnlySubtask(StructuredTaskScope.Configuration.defaults()
+				.withName("allocation").withMetrics(new ScopeMetrics()));
+	}
+
+	/**
+	 * Asserts that, once warmed up, every fork and join on a pooled scope allocates only one
+	 * small object on the owner, the Subtask (which is also the subtask's cancellation
+	 * token), and nothing at all on the worker.  The owner is allowed a few one-off
+	 * allocations, such as a lazily initialised class or a deoptimisation, over all the
+	 * rounds, but nothing that grows with them.  Features added to the
+	 * fork/complete path, such as metrics, Flight Recorder events and the event log, must
+	 * keep this passing.
+	 */
+	private static void assertForkAllocatesOnlySubtask(StructuredTaskScope.Configuration config) throws InterruptedException {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		final int rounds = 10_000;
+		final long oneOffBytes = 4096;
+		final HardwareTaskScope.HardwareTask<InterruptedException> noop = () -> {};
+		AtomicReference<Thread> worker = new AtomicReference<>();
+		WorkerPool pool = new WorkerPool("test", com.kuriosityrobotics.shuttle.Duration.ofSeconds(60));
+		long owner = Thread.currentThread().getId();
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, config.withWorkerPool(pool))) {
+			scope.fork(() -> worker.set(Thread.currentThread()));
+			scope.join();
+
+			for (int i = 0; i < 5 * rounds; i++) { // warm up
+				scope.fork(noop);
+				scope.join();
+			}
+
+			// what reading the counter itself costs
+			long start = threads.getThreadAllocatedBytes(owner);
+			long overhead = threads.getThreadAllocatedBytes(owner) - start;
+
+			long before = threads.getThreadAllocatedBytes(owner);
+			scope.fork(noop);
+			scope.join();
+			long perFork = threads.getThreadAllocatedBytes(owner) - before - overhead;
+
+			long ownerBefore = threads.getThreadAllocatedBytes(owner);
+			long workerBefore = threads.getThreadAllocatedBytes(worker.get().getId());
+			for (int i = 0; i < rounds; i++) {
+				scope.fork(noop);
+				scope.join();
+			}
+			long workerAfter = threads.getThreadAllocatedBytes(worker.get().getId());
+			long ownerAfter = threads.getThreadAllocatedBytes(owner) - overhead;
+
+			assertTrue(perFork > 0 && perFork <= 64, "a fork allocated " + perFork + " bytes");
+			long ownerBytes = ownerAfter - ownerBefore;
+			assertTrue(ownerBytes <= rounds * perFork + oneOffBytes,
+					"owner allocated " + ownerBytes + " bytes, more than one Subtask per fork");
+			assertEquals(0, workerAfter - workerBefore, "worker allocated");
+			assertEquals(1, pool.idleCount()); // every fork reused the same worker
+		}
+	}
 }
@@ -2,13 +2,18 @@ package com.kuriosityrobotics.shuttle;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import org.junit.jupiter.api.*;
 
+import java.lang.management.ManagementFactory;
+
 class InstantTest {
 	private static final long NS_TO_S = 1_000_000_000;
 	private static final long NS_TO_MS = 1_000_000;
 
+	private long sink; // keeps the JIT from dropping the calls being measured
+
 	@RepeatedTest(10)
 	void testInstantNow() throws InterruptedException {
 		Instant begin = Instant.now();
@@ -45,4 +50,39 @@ class InstantTest {
 		assertEquals(start, start);
 		assertEquals(end, end);
 	}
+
+	@Test
+	void testNanosDeadline() throws InterruptedException {
+		long deadline = Instant.nowNanos() + 100 * NS_TO_MS;
+		assertTrue(Instant.nanosUntil(deadline) > 0);
+		assertTrue(Instant.nanosUntil(deadline) <= 100 * NS_TO_MS);
+		Thread.sleep(100);
+		assertTrue(Instant.nanosUntil(deadline) <= 0);
+		assertEquals(deadline, Instant.ofNanos(deadline).toNanos());
+	}
+
+	@Test
+	void testNanosDoNotAllocate() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		final int rounds = 100_000;
+		final long oneOffBytes = 256;
+		long id = Thread.currentThread().getId();
+		for (int i = 0; i < rounds; i++) // warm up
+			sink += Instant.nanosUntil(Instant.nowNanos() + i);
+
+		// what reading the counter itself costs
+		long start = threads.getThreadAllocatedBytes(id);
+		long overhead = threads.getThreadAllocatedBytes(id) - start;
+
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < rounds; i++)
+			sink += Instant.nanosUntil(Instant.nowNanos() + i);
+		long allocated = threads.getThreadAllocatedBytes(id) - before - overhead;
+
+		assertTrue(allocated <= oneOffBytes, "allocated " + allocated + " bytes over " + rounds + " rounds");
+	}
 }
@@ -0,0 +1,116 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+class LockSetTest {
+	private static Thread holdUntilInterrupted(PreemptibleLock lock, int priority, CountDownLatch locked, AtomicInteger interrupts) {
+		Thread t = new Thread(() -> {
+			lock.lockWithPriority(priority);
+			try {
+				locked.countDown();
+				Thread.sleep(10000);
+			} catch (InterruptedException e) {
+				interrupts.incrementAndGet();
+			} finally {
+				lock.unlock();
+			}
+		});
+		t.start();
+		return t;
+	}
+
+	@Test
+	void testPreemptsAllHolders() throws InterruptedException {
+		PreemptibleLock a = new PreemptibleLock();
+		PreemptibleLock b = new PreemptibleLock();
+		CountDownLatch locked = new CountDownLatch(2);
+		AtomicInteger interrupts = new AtomicInteger();
+
+		Thread holderA = holdUntilInterrupted(a, 0, locked, interrupts);
+		Thread holderB = holdUntilInterrupted(b, 0, locked, interrupts);
+		locked.await();
+
+		LockSet set = PreemptibleLock.lockAll(b, a, b);
+		try {
+			assertTrue(a.isLocked());
+			assertTrue(b.isLocked());
+		} finally {
+			set.unlock();
+		}
+		holderA.join();
+		holderB.join();
+
+		assertEquals(2, interrupts.get()); // each holder exactly once
+		assertFalse(a.isLocked());
+		assertFalse(b.isLocked());
+	}
+
+	@Test
+	void testRollsBackOnTimeout() throws InterruptedException {
+		PreemptibleLock a = new PreemptibleLock();
+		PreemptibleLock b = new PreemptibleLock();
+		CountDownLatch locked = new CountDownLatch(1);
+		AtomicInteger interrupts = new AtomicInteger();
+
+		Thread holder = holdUntilInterrupted(b, 10, locked, interrupts); // not preemptible by the set
+		locked.await();
+
+		LockSet set = LockSet.of(a, b);
+		assertFalse(set.tryLock(0, 100, TimeUnit.MILLISECONDS));
+		assertFalse(a.isLocked());
+		assertFalse(set.tryLock());
+		assertFalse(a.isLocked());
+		assertEquals(0, interrupts.get());
+
+		holder.interrupt();
+		holder.join();
+		assertTrue(set.tryLock());
+		set.unlock();
+	}
+
+	@RepeatedTest(5)
+	void testOverlappingSetsDoNotLivelock() throws InterruptedException {
+		final int rounds = 200;
+		PreemptibleLock a = new PreemptibleLock();
+		PreemptibleLock b = new PreemptibleLock();
+		PreemptibleLock c = new PreemptibleLock();
+		LockSet[] sets = {LockSet.of(a, b), LockSet.of(b, a), LockSet.of(b, c), LockSet.of(c, a)};
+		AtomicInteger completed = new AtomicInteger();
+
+		List<Thread> threads = new ArrayList<>();
+		for (LockSet set : sets) {
+			Thread t = new Thread(() -> {
+				for (int i = 0; i < rounds; i++) {
+					set.lock();
+					try {
+						// do some work, unless preempted
+						LockSupport.parkNanos(100_000);
+					} finally {
+						set.unlock();
+					}
+					Thread.interrupted();
+					completed.incrementAndGet();
+				}
+			});
+			threads.add(t);
+		}
+
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(20), () -> {
+			threads.forEach(Thread::start);
+			for (Thread t : threads)
+				t.join();
+		});
+		assertEquals(rounds * sets.length, completed.get());
+		assertFalse(a.isLocked() || b.isLocked() || c.isLocked());
+	}
+}
@@ -0,0 +1,81 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+class PollingHubTest {
+	@Test
+	void testSharedConditionIsCheckedOncePerCycle() throws Exception {
+		PollingHub hub = new PollingHub(Duration.ofMillis(10));
+		AtomicInteger checks = new AtomicInteger();
+		Simulation simulation = new Simulation(7);
+		simulation.run(() -> {
+			long arrival = Instant.nowNanos() + Duration.ofMillis(100).toNanos();
+			BooleanSupplier arrived = () -> {
+				checks.incrementAndGet();
+				return Instant.nowNanos() >= arrival;
+			};
+			try (var scope = HardwareTaskScope.open()) {
+				for (int i = 0; i < 3; i++)
+					scope.fork(() -> hub.await(arrived));
+				scope.join();
+			}
+		});
+
+		// each waiter checks once itself, then the hub checks once per cycle for all three
+		assertEquals(3 + 10, checks.get());
+		assertEquals(100, simulation.elapsed().toMillis());
+	}
+
+	@Test
+	void testWakesOnlySatisfiedWaiters() throws InterruptedException {
+		PollingHub hub = new PollingHub(Duration.ofMillis(5));
+		AtomicBoolean first = new AtomicBoolean();
+		AtomicBoolean second = new AtomicBoolean();
+		Thread a = new Thread(() -> assertDoesNotThrow(() -> hub.await(first::get)));
+		Thread b = new Thread(() -> assertDoesNotThrow(() -> hub.await(second::get)));
+		a.start();
+		b.start();
+
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(2), () -> {
+			first.set(true);
+			a.join();
+			assertTrue(b.isAlive());
+
+			second.set(true); // whichever thread was polling, b is still polled
+			b.join();
+		});
+	}
+
+	@Test
+	void testRelativeTimeoutRunsOnTheWaitsClock() throws Exception {
+		PollingHub hub = new PollingHub(Duration.ofMillis(10));
+		AtomicBoolean arrived = new AtomicBoolean(true);
+		Simulation simulation = new Simulation(3);
+		simulation.run(() -> arrived.set(hub.awaitNanos(() -> false, Duration.ofMillis(55).toNanos())));
+
+		assertFalse(arrived.get());
+		assertEquals(55, simulation.elapsed().toMillis());
+	}
+
+	@Test
+	void testTimeoutAndFailure() throws InterruptedException {
+		PollingHub hub = new PollingHub(Duration.ofMillis(5));
+		assertFalse(hub.awaitUntil(() -> false, Instant.nowNanos() + Duration.ofMillis(50).toNanos()));
+
+		AtomicInteger calls = new AtomicInteger();
+		BooleanSupplier failing = () -> {
+			if (calls.incrementAndGet() > 1)
+				throw new IllegalStateException("sensor unplugged");
+			return false;
+		};
+		assertThrows(IllegalStateException.class, () -> hub.await(failing));
+
+		assertThrows(IllegalArgumentException.class, () -> new PollingHub(Duration.ZERO));
+	}
+}
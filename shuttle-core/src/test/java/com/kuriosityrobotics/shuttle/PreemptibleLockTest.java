@@ -3,14 +3,21 @@ package com.kuriosityrobotics.shuttle;
 import org.junit.jupiter.api.RepeatedTest;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.LockSupport;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class PreemptibleLockTest {
 
@@ -318,6 +325,41 @@ class PreemptibleLockTest {
 		assertTrue(lock.tryLock());
 	}
 
+	@Test
+	void testPreemptionCallbacksDoNotBlockUnlock() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch unlocked = new CountDownLatch(1);
+		AtomicBoolean sawUnlock = new AtomicBoolean();
+
+		try (HardwareTaskScope<InterruptedException> scope = HardwareTaskScope.open()) {
+			scope.fork(() -> {
+				lock.lock();
+				try {
+					// runs on the preempting thread, while this one must still be able to unlock
+					CancellationToken.current().onCancel(() -> {
+						try {
+							sawUnlock.set(unlocked.await(5, TimeUnit.SECONDS));
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					});
+					locked.countDown();
+					Thread.sleep(10000);
+				} finally {
+					lock.unlock();
+					unlocked.countDown();
+				}
+			});
+
+			locked.await();
+			lock.lock();
+			lock.unlock();
+			scope.join();
+		}
+		assertTrue(sawUnlock.get());
+	}
+
 	@RepeatedTest(10)
 	void tryLockThrows() throws InterruptedException {
 		PreemptibleLock lock = new PreemptibleLock();
@@ -336,6 +378,340 @@ class PreemptibleLockTest {
 		assertTrue(Thread.currentThread().isInterrupted()); // unchanged
 	}
 
+	@Test
+	void testLowerPriorityDoesNotPreempt() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean interrupted = new AtomicBoolean();
+
+		Thread holder = new Thread(() -> {
+			lock.lockWithPriority(10);
+			try {
+				locked.countDown();
+				release.await();
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			} finally {
+				lock.unlock();
+			}
+		});
+		holder.start();
+		locked.await();
+
+		assertFalse(lock.tryLock(5, 100, TimeUnit.MILLISECONDS));
+		assertFalse(interrupted.get());
+
+		// an equal priority preempts
+		assertTrue(lock.tryLock(10, 1, TimeUnit.SECONDS));
+		lock.unlock();
+		holder.join();
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	void testReentrantPriorityIsRestored() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		CountDownLatch lowered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean interrupted = new AtomicBoolean();
+
+		Thread holder = new Thread(() -> {
+			lock.lockWithPriority(0);
+			try {
+				lock.lockWithPriority(10); // a brief critical call
+				lock.unlock();
+				lowered.countDown();
+				release.await();
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			} finally {
+				lock.unlock();
+			}
+		});
+		holder.start();
+		lowered.await();
+
+		// the outer hold is back at priority 0
+		assertTrue(lock.tryLock(5, 1, TimeUnit.SECONDS));
+		lock.unlock();
+		holder.join();
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	void testHigherPriorityQueuedFirst() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+
+		lock.lockWithPriority(100); // never preempted by the waiters below
+		List<Thread> threads = new ArrayList<>();
+		for (int priority : new int[]{1, 2, 3}) {
+			Thread t = new Thread(() -> {
+				lock.lockWithPriority(priority);
+				try {
+					order.add(priority);
+				} finally {
+					lock.unlock();
+				}
+			});
+			threads.add(t);
+			t.start();
+
+			// wait until queued
+			while (t.getState() != Thread.State.WAITING)
+				Thread.yield();
+		}
+		lock.unlock();
+
+		for (Thread t : threads)
+			t.join();
+		assertEquals(List.of(3, 2, 1), order);
+	}
+
+	/**
+	 * Rethrows, on the test thread, the first failure a worker thread recorded.
+	 */
+	private static void rethrowFailures(Queue<Throwable> failures) {
+		Throwable first = failures.poll();
+		if (first == null)
+			return;
+		AssertionError error = new AssertionError("worker thread failed", first);
+		for (Throwable t : failures)
+			error.addSuppressed(t);
+		throw error;
+	}
+
+	/**
+	 * Asserts that, once warmed up, taking and releasing uncontended locks inside a subtask,
+	 * where every acquisition gets a hold on the subtask's token, allocates nothing.
+	 */
+	@Test
+	void testUncontendedLockInSubtaskDoesNotAllocate() throws InterruptedException {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		final int rounds = 10_000;
+		PreemptibleLock outer = new PreemptibleLock();
+		PreemptibleLock inner = new PreemptibleLock();
+		AtomicLong allocated = new AtomicLong(-1);
+		try (HardwareTaskScope<InterruptedException> scope = HardwareTaskScope.open()) {
+			scope.fork(() -> {
+				long id = Thread.currentThread().getId();
+				for (int i = 0; i < 5 * rounds; i++) // warm up
+					lockBoth(outer, inner);
+
+				// what reading the counter itself costs
+				long start = threads.getThreadAllocatedBytes(id);
+				long overhead = threads.getThreadAllocatedBytes(id) - start;
+
+				long before = threads.getThreadAllocatedBytes(id);
+				for (int i = 0; i < rounds; i++)
+					lockBoth(outer, inner);
+				allocated.set(threads.getThreadAllocatedBytes(id) - before - overhead);
+			});
+			scope.join();
+		}
+		assertEquals(0, allocated.get(), "bytes allocated by " + rounds + " rounds");
+	}
+
+	private static void lockBoth(PreemptibleLock outer, PreemptibleLock inner) {
+		outer.lock();
+		try {
+			inner.lockWithPriority(1);
+			inner.unlock();
+		} finally {
+			outer.unlock();
+		}
+	}
+
+	@Test
+	void testConditionSignal() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		Condition condition = lock.newCondition();
+		CountDownLatch awaiting = new CountDownLatch(2);
+		CountDownLatch firstWoken = new CountDownLatch(1);
+		AtomicInteger woken = new AtomicInteger();
+		Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Thread t = new Thread(() -> {
+				try {
+					lock.lockWithPriority(10);
+					try {
+						awaiting.countDown();
+						condition.await();
+						assertTrue(lock.isLocked());
+						woken.incrementAndGet();
+						firstWoken.countDown();
+					} finally {
+						lock.unlock();
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		awaiting.await();
+
+		// the lower priority cannot preempt the second waiter if it is still on its way into
+		// await(), so this waits for both to be awaiting
+		lock.lockWithPriority(0);
+		try {
+			assertEquals(0, woken.get());
+			condition.signal();
+		} finally {
+			lock.unlock();
+		}
+		assertTimeoutPreemptively(Duration.ofSeconds(2), () -> firstWoken.await());
+		assertEquals(1, woken.get());
+
+		condition.signal(); // without holding the lock
+		for (Thread t : threads)
+			t.join();
+
+		rethrowFailures(failures);
+		assertEquals(2, woken.get());
+		assertFalse(lock.isLocked());
+	}
+
+	@Test
+	void testSignallerDoesNotPreemptAwaiter() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		Condition condition = lock.newCondition();
+		CountDownLatch locked = new CountDownLatch(1);
+		Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+		Thread awaiter = new Thread(() -> {
+			try {
+				lock.lock();
+				try {
+					locked.countDown();
+					condition.await(); // returns normally once signalled
+					assertTrue(lock.isLocked());
+				} finally {
+					lock.unlock();
+				}
+			} catch (Throwable e) {
+				failures.add(e);
+			}
+		});
+		awaiter.start();
+		locked.await();
+
+		// the awaiter releases the lock when it starts awaiting
+		assertTimeoutPreemptively(Duration.ofSeconds(2), () -> {
+			while (lock.isLocked())
+				Thread.yield();
+		});
+
+		// taking the lock at the same priority, as a signaller does, holds nobody to preempt
+		lock.lock();
+		try {
+			condition.signal();
+		} finally {
+			lock.unlock();
+		}
+		awaiter.join();
+
+		rethrowFailures(failures);
+		assertFalse(awaiter.isInterrupted());
+		assertFalse(lock.isLocked());
+	}
+
+	@Test
+	void testConditionAwaitTimesOut() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		Condition condition = lock.newCondition();
+		assertThrows(IllegalMonitorStateException.class, condition::await);
+
+		lock.lock();
+		lock.lock();
+		try {
+			assertFalse(condition.await(50, TimeUnit.MILLISECONDS));
+			lock.unlock();
+			assertTrue(lock.isLocked()); // both holds were restored
+		} finally {
+			lock.unlock();
+		}
+		assertFalse(lock.isLocked());
+	}
+
+	@Test
+	void testHigherPriorityAwaiterNotPreempted() throws InterruptedException {
+		PreemptibleLock lock = new PreemptibleLock();
+		Condition condition = lock.newCondition();
+		CountDownLatch awaiting = new CountDownLatch(1);
+		AtomicBoolean signalled = new AtomicBoolean();
+
+		Thread t = new Thread(() -> {
+			lock.lockWithPriority(10);
+			try {
+				awaiting.countDown();
+				condition.await();
+				signalled.set(true);
+			} catch (InterruptedException ignored) {
+			} finally {
+				lock.unlock();
+			}
+		});
+		t.start();
+		awaiting.await();
+
+		lock.lock();
+		try {
+			condition.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		t.join();
+		assertTrue(signalled.get());
+	}
+
+	@Test
+	void testConvoyMakesProgress() throws InterruptedException {
+		final int threadCount = 4;
+		final PreemptibleLock lock = new PreemptibleLock();
+		final CountDownLatch done = new CountDownLatch(1);
+
+		// each thread holds the lock until it is preempted, then queues up again
+		List<Thread> threads = new ArrayList<>(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			Thread t = new Thread(() -> {
+				while (done.getCount() > 0) {
+					lock.lock();
+					try {
+						while (done.getCount() > 0 && !Thread.interrupted())
+							LockSupport.parkNanos(1_000_000);
+					} finally {
+						lock.unlock();
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+
+		assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			for (int i = 0; i < 1000; i++) {
+				lock.lock();
+				lock.unlock();
+			}
+		});
+
+		done.countDown();
+		for (Thread t : threads) {
+			t.interrupt();
+			t.join();
+		}
+		assertFalse(lock.isLocked());
+	}
+
 	@RepeatedTest(10)
 	void testFairness() throws InterruptedException {
 		final int threadCount = 10;
@@ -0,0 +1,237 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class PreemptibleReadWriteLockTest {
+	@Test
+	void testReadersShare() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		lock.readLock().lock();
+		try {
+			AtomicBoolean acquired = new AtomicBoolean();
+			Thread t = new Thread(() -> {
+				acquired.set(lock.readLock().tryLock());
+				if (acquired.get())
+					lock.readLock().unlock();
+			});
+			t.start();
+			t.join();
+
+			assertTrue(acquired.get());
+			assertFalse(lock.writeLock().tryLock());
+		} finally {
+			lock.readLock().unlock();
+		}
+		assertThrows(IllegalMonitorStateException.class, lock.readLock()::unlock);
+	}
+
+	@Test
+	void testWriterWaitsForReaders() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		CountDownLatch reading = new CountDownLatch(1);
+		AtomicBoolean interrupted = new AtomicBoolean();
+
+		Thread reader = new Thread(() -> {
+			lock.readLock().lock();
+			try {
+				reading.countDown();
+				Thread.sleep(200);
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			} finally {
+				lock.readLock().unlock();
+			}
+		});
+		reader.start();
+		reading.await();
+
+		assertFalse(lock.writeLock().tryLock(50, TimeUnit.MILLISECONDS));
+		assertFalse(lock.isWriteLocked());
+
+		lock.writeLock().lock();
+		try {
+			assertEquals(0, lock.getReadLockCount());
+			assertTrue(lock.readLock().tryLock()); // the writer may read
+			lock.readLock().unlock();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		reader.join();
+		assertFalse(interrupted.get());
+	}
+
+	@Test
+	void testReadLockIsReentrantWhileWriterDrains() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		Thread writer = new Thread(() -> {
+			lock.writeLock().lock();
+			lock.writeLock().unlock();
+		});
+
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(2), () -> {
+			lock.readLock().lock();
+			writer.start();
+			while (!lock.isWriteLocked())
+				Thread.yield(); // the writer is draining readers
+			// nested reads, like an interlock getter called under another, neither wait nor deadlock
+			assertTrue(lock.readLock().tryLock());
+			lock.readLock().lock();
+			assertEquals(3, lock.getReadLockCount());
+			lock.readLock().unlock();
+			lock.readLock().unlock();
+			lock.readLock().unlock();
+			writer.join();
+		});
+	}
+
+	@Test
+	void testWriterPreemptsReaders() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock(false, true);
+		CountDownLatch reading = new CountDownLatch(1);
+		AtomicBoolean interrupted = new AtomicBoolean();
+
+		Thread reader = new Thread(() -> {
+			lock.readLock().lock();
+			try {
+				reading.countDown();
+				Thread.sleep(10000);
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			} finally {
+				lock.readLock().unlock();
+			}
+		});
+		reader.start();
+		reading.await();
+
+		assertTrue(lock.writeLock().tryLock(1, TimeUnit.SECONDS));
+		lock.writeLock().unlock();
+		reader.join();
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	void testWriterPreemptsReadersByCancelling() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock(false, true, false);
+		CountDownLatch reading = new CountDownLatch(1);
+		AtomicBoolean preempted = new AtomicBoolean();
+		AtomicBoolean interrupted = new AtomicBoolean(true);
+		AtomicBoolean cancelledAfterUnlock = new AtomicBoolean(true);
+
+		try (var scope = HardwareTaskScope.open()) {
+			scope.fork(() -> {
+				lock.readLock().lock();
+				try {
+					reading.countDown();
+					CancellationToken.current().sleep(Duration.ofSeconds(10));
+				} catch (PreemptedException e) {
+					preempted.set(true);
+					interrupted.set(Thread.currentThread().isInterrupted());
+				} finally {
+					lock.readLock().unlock();
+				}
+				cancelledAfterUnlock.set(CancellationToken.current().isCancelled());
+			});
+			reading.await();
+
+			assertTrue(lock.writeLock().tryLock(1, TimeUnit.SECONDS));
+			lock.writeLock().unlock();
+			scope.join();
+		}
+
+		assertTrue(preempted.get());
+		assertFalse(interrupted.get());
+		assertFalse(cancelledAfterUnlock.get());
+	}
+
+	@Test
+	void testWriterPreemptsWriter() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		CountDownLatch writing = new CountDownLatch(1);
+		AtomicBoolean interrupted = new AtomicBoolean();
+
+		Thread writer = new Thread(() -> {
+			lock.writeLock().lock();
+			try {
+				writing.countDown();
+				Thread.sleep(10000);
+			} catch (InterruptedException e) {
+				interrupted.set(true);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		});
+		writer.start();
+		writing.await();
+
+		assertFalse(lock.readLock().tryLock(50, TimeUnit.MILLISECONDS)); // readers never preempt
+		assertTrue(lock.writeLock().tryLock(1, TimeUnit.SECONDS));
+		lock.writeLock().unlock();
+		writer.join();
+		assertTrue(interrupted.get());
+	}
+
+	@Test
+	void testOptimisticRead() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		long stamp = lock.tryOptimisticRead();
+		assertNotEquals(0L, stamp);
+
+		lock.readLock().lock(); // readers do not invalidate stamps
+		lock.readLock().unlock();
+		assertTrue(lock.validate(stamp));
+
+		lock.writeLock().lock();
+		assertEquals(0L, lock.tryOptimisticRead());
+		assertFalse(lock.validate(stamp));
+		lock.writeLock().unlock();
+
+		assertFalse(lock.validate(stamp));
+		assertTrue(lock.validate(lock.tryOptimisticRead()));
+	}
+
+	@RepeatedTest(10)
+	void testReadersSeeConsistentWrites() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		int[] pair = new int[2]; // guarded by lock
+		AtomicBoolean torn = new AtomicBoolean();
+
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(() -> {
+				for (int j = 0; j < 1000; j++) {
+					lock.readLock().lock();
+					try {
+						if (pair[0] != pair[1])
+							torn.set(true);
+					} finally {
+						lock.readLock().unlock();
+					}
+				}
+			});
+			readers[i].start();
+		}
+
+		for (int i = 0; i < 1000; i++) {
+			lock.writeLock().lock();
+			try {
+				pair[0]++;
+				Thread.yield();
+				pair[1]++;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		for (Thread reader : readers)
+			reader.join();
+		assertFalse(torn.get());
+	}
+}
@@ -0,0 +1,94 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+class ScopeMetricsTest {
+	@Test
+	void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.percentile(0.5));
+
+		for (long i = 1; i <= 100; i++)
+			histogram.record(i * 1000);
+		histogram.record(-5); // recorded as zero
+
+		assertEquals(101, histogram.count());
+		assertEquals(100_000, histogram.max());
+		assertEquals(0, histogram.percentile(0.0));
+		assertEquals(100_000, histogram.percentile(1.0));
+
+		// buckets are a quarter of a power of two wide
+		long median = histogram.percentile(0.5);
+		assertTrue(median >= 50_000 && median < 50_000 * 1.25, "median " + median);
+		long p99 = histogram.percentile(0.99);
+		assertTrue(p99 >= 99_000 && p99 <= 100_000, "p99 " + p99);
+
+		assertThrows(IllegalArgumentException.class, () -> histogram.percentile(1.5));
+	}
+
+	@Test
+	void testHistogramSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 0; i < 8; i++)
+			histogram.record(i);
+		for (int i = 0; i < 8; i++)
+			assertEquals(i, histogram.percentile((i + 1) / 8.0));
+	}
+
+	@Test
+	void testScopeRecordsTimings() throws InterruptedException {
+		ScopeMetrics metrics = new ScopeMetrics();
+		var config = StructuredTaskScope.Configuration.defaults()
+				.withName("arm")
+				.withMetrics(metrics);
+
+		for (int i = 0; i < 3; i++) {
+			try (var scope = HardwareTaskScope.open(InterruptedException.class, config)) {
+				scope.fork(() -> Thread.sleep(5));
+				scope.fork(() -> { });
+				scope.join();
+			}
+		}
+
+		ScopeMetrics.ScopeStats stats = metrics.forScope("arm");
+		assertEquals(1, metrics.scopes().size());
+		assertEquals(6, stats.succeeded());
+		assertEquals(0, stats.failed());
+		assertEquals(6, stats.forkToRun().count());
+		assertEquals(6, stats.runTime().count());
+		assertEquals(3, stats.joinWait().count());
+		assertEquals(3, stats.shutdownToQuiescence().count());
+		assertTrue(stats.runTime().max() >= 5_000_000);
+		assertTrue(stats.joinWait().max() >= 5_000_000);
+	}
+
+	@Test
+	void testScopeRecordsOutcomes() throws InterruptedException {
+		ScopeMetrics metrics = new ScopeMetrics();
+		var config = StructuredTaskScope.Configuration.defaults().withMetrics(metrics);
+		CountDownLatch sleeping = new CountDownLatch(1);
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, config)) {
+			scope.fork(() -> {
+				sleeping.countDown();
+				Thread.sleep(10_000);
+			});
+			scope.fork(() -> {
+				sleeping.await();
+				throw new IllegalStateException();
+			});
+			assertThrows(IllegalStateException.class, scope::join);
+		}
+
+		ScopeMetrics.ScopeStats stats = metrics.forScope(null);
+		assertEquals(ScopeMetrics.UNNAMED, stats.name());
+		assertEquals(0, stats.succeeded());
+		assertEquals(1, stats.failed());
+		assertEquals(1, stats.unavailable());
+		assertEquals(1, stats.shutdownToQuiescence().count());
+	}
+}
@@ -0,0 +1,133 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SimulationTest {
+	private static List<Integer> interleaving(long seed) throws Exception {
+		List<Integer> trace = new ArrayList<>();
+		new Simulation(seed).run(() -> {
+			try (var scope = HardwareTaskScope.open()) {
+				for (int i = 0; i < 3; i++) {
+					int id = i;
+					scope.fork(() -> {
+						for (int step = 0; step < 4; step++) {
+							synchronized (trace) {
+								trace.add(id);
+							}
+							CancellationToken.current().sleep(Duration.ofMillis(10));
+						}
+					});
+				}
+				scope.join();
+			}
+		});
+		return trace;
+	}
+
+	@Test
+	void testSeedDeterminesInterleaving() throws Exception {
+		Set<List<Integer>> seen = new HashSet<>();
+		for (long seed = 0; seed < 10; seed++) {
+			List<Integer> trace = interleaving(seed);
+			assertEquals(12, trace.size());
+			assertEquals(trace, interleaving(seed));
+			seen.add(trace);
+		}
+		assertTrue(seen.size() > 1, "every seed gave the same interleaving");
+	}
+
+	@Test
+	void testRunsInVirtualTime() throws Exception {
+		Simulation simulation = new Simulation(42);
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> simulation.run(() -> {
+			Instant start = Instant.now();
+			try (var scope = HardwareTaskScope.open()) {
+				scope.fork(() -> {
+					for (int move = 0; move < 10; move++)
+						CancellationToken.current().sleep(Duration.ofSeconds(3));
+				});
+				scope.fork(() -> {
+					for (int move = 0; move < 5; move++)
+						CancellationToken.current().sleep(Duration.ofSeconds(2));
+				});
+				scope.join();
+			}
+			assertEquals(30_000, Instant.now().since(start).toMillis());
+		}));
+		assertEquals(30_000, simulation.elapsed().toMillis());
+		assertSame(Clock.system(), Clock.current());
+	}
+
+	@Test
+	void testReaderWaitsForWriterInVirtualTime() {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		AtomicLong readAtMillis = new AtomicLong(-1);
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> new Simulation(0).run(() -> {
+			Instant start = Instant.now();
+			try (var scope = HardwareTaskScope.open()) {
+				lock.writeLock().lock();
+				try {
+					scope.fork(() -> {
+						lock.readLock().lock(); // blocks behind the writer
+						try {
+							readAtMillis.set(Instant.now().since(start).toMillis());
+						} finally {
+							lock.readLock().unlock();
+						}
+					});
+					CancellationToken.current().sleep(Duration.ofSeconds(1));
+				} finally {
+					lock.writeLock().unlock();
+				}
+				scope.join();
+			}
+		}));
+		assertEquals(1000, readAtMillis.get());
+	}
+
+	@Test
+	void testThreadOutsideTheSimulationForksOntoItsOwnThreads() {
+		AtomicBoolean ran = new AtomicBoolean();
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(5), () -> new Simulation(0).run(() -> {
+			// its subtask could never get a turn while this thread waits for it outside the simulation
+			Thread outside = new Thread(() -> {
+				try (var scope = HardwareTaskScope.open()) {
+					scope.fork(() -> ran.set(true));
+					scope.join();
+				} catch (InterruptedException e) {
+					throw new AssertionError(e);
+				}
+			});
+			outside.start();
+			outside.join();
+		}));
+		assertTrue(ran.get());
+	}
+
+	@Test
+	void testDeadlockIsReported() {
+		PreemptibleLock lock = new PreemptibleLock();
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> new Simulation(0).run(() -> {
+			lock.lockWithPriority(10);
+			try (var scope = HardwareTaskScope.open()) {
+				scope.fork(() -> lock.lockInterruptiblyWithPriority(0)); // waits for the owner, who waits for it
+				scope.join();
+			} finally {
+				lock.unlock();
+			}
+		}));
+
+		// both threads were interrupted, and the scope unwound normally
+		assertEquals(1, e.getSuppressed().length);
+		assertInstanceOf(InterruptedException.class, e.getSuppressed()[0]);
+	}
+}
@@ -0,0 +1,206 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ThreadFlockTest {
+	@Test
+	void testStartRegistersBeforeRunning() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean contained = new AtomicBoolean();
+
+		try (var flock = ThreadFlock.open("test")) {
+			Thread thread = flock.start(Thread::new, () -> {
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {
+				}
+			});
+
+			// registered by the parent, even though the child is blocked
+			contained.set(flock.containsThread(thread));
+			assertTrue(flock.threads().anyMatch(t -> t == thread));
+			release.countDown();
+			assertTrue(flock.awaitAll());
+		}
+
+		assertTrue(contained.get());
+	}
+
+	@Test
+	void testNestedContainment() throws InterruptedException {
+		AtomicReference<Thread> inner = new AtomicReference<>();
+		AtomicBoolean contained = new AtomicBoolean();
+
+		try (var outer = ThreadFlock.open("outer")) {
+			CountDownLatch release = new CountDownLatch(1);
+			Thread thread = outer.start(ShuttleThread::new, () -> {
+				try (var nested = ThreadFlock.open("nested")) {
+					inner.set(nested.start(ShuttleThread::new, () -> {
+						try {
+							release.await();
+						} catch (InterruptedException ignored) {
+						}
+					}));
+					contained.set(outer.containsThread(inner.get()));
+					release.countDown();
+				}
+			});
+
+			assertTrue(thread instanceof ShuttleThread);
+			assertTrue(outer.awaitAll());
+		}
+
+		assertTrue(inner.get() instanceof ShuttleThread);
+		assertTrue(contained.get());
+	}
+
+	@Test
+	void testContainerTree() throws InterruptedException {
+		AtomicReference<ThreadContainer> outerContainer = new AtomicReference<>();
+		AtomicReference<ThreadContainer> nestedContainer = new AtomicReference<>();
+		AtomicBoolean linked = new AtomicBoolean();
+
+		try (var outer = ThreadFlock.open("outer")) {
+			outer.start(ShuttleThread::new, () -> {
+				ThreadContainer container = ThreadContainers.container(Thread.currentThread());
+				outerContainer.set(container);
+				try (var nested = ThreadFlock.open("nested")) {
+					CountDownLatch release = new CountDownLatch(1);
+					Thread inner = nested.start(ShuttleThread::new, () -> {
+						try {
+							release.await();
+						} catch (InterruptedException ignored) {
+						}
+					});
+					ThreadContainer nestedOne = ThreadContainers.container(inner);
+					nestedContainer.set(nestedOne);
+					linked.set(nestedOne.parent() == container
+							&& container.children().anyMatch(c -> c == nestedOne)
+							&& ThreadContainers.root().children().anyMatch(c -> c == container));
+					release.countDown();
+				}
+			});
+			assertTrue(outer.awaitAll());
+		}
+
+		assertTrue(linked.get());
+		// closed containers leave the tree
+		assertEquals(0, outerContainer.get().children().count());
+		assertFalse(ThreadContainers.root().children().anyMatch(c -> c == outerContainer.get()));
+	}
+
+	@Test
+	void testUnclosedFlockIsCollectable() throws InterruptedException {
+		AtomicReference<WeakReference<ThreadFlock>> leaked = new AtomicReference<>();
+		Thread owner = new Thread(() -> leaked.set(new WeakReference<>(ThreadFlock.open("leaked"))));
+		owner.start();
+		owner.join();
+		owner = null;
+
+		// the flock is still registered with the root container, which must not keep it alive
+		WeakReference<ThreadFlock> flock = leaked.get();
+		for (int i = 0; i < 100 && flock.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(flock.get());
+	}
+
+	@Test
+	void testCloseOutOfOrderClosesNested() {
+		var outer = ThreadFlock.open("outer");
+		var middle = ThreadFlock.open("middle");
+		var inner = ThreadFlock.open("inner");
+
+		// closing a flock that is not at the top first closes the ones nested in it
+		assertThrows(StructureViolationException.class, middle::close);
+		assertTrue(inner.isClosed());
+		assertTrue(middle.isClosed());
+		assertFalse(outer.isClosed());
+
+		// the stack is intact below them
+		try (var next = ThreadFlock.open("next")) {
+			assertFalse(next.isClosed());
+		}
+		outer.close();
+		assertNull(StackableScope.head());
+	}
+
+	@Test
+	void testAwaitAllSpinning() throws Exception {
+		try (var flock = ThreadFlock.open("test", 1_000_000_000L)) {
+			for (int i = 0; i < 10; i++) {
+				flock.start(ShuttleThread::new, () -> {});
+				assertTrue(flock.awaitAll());
+			}
+
+			// the spin never outlasts the timeout
+			CountDownLatch release = new CountDownLatch(1);
+			flock.start(ShuttleThread::new, () -> {
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {
+				}
+			});
+			long start = System.nanoTime();
+			assertThrows(TimeoutException.class, () -> flock.awaitAll(Duration.ofMillis(20)));
+			assertTrue(System.nanoTime() - start < 500_000_000L);
+
+			release.countDown();
+			assertTrue(flock.awaitAll(Duration.ofSeconds(5)));
+		}
+	}
+
+	@Test
+	void testStartAfterShutdown() {
+		try (var flock = ThreadFlock.open("test")) {
+			flock.shutdown();
+			assertThrows(IllegalStateException.class, () -> flock.start(Thread::new, () -> {}));
+			assertEquals(0, flock.threads().count());
+		}
+	}
+
+	@Test
+	void testFailedStartIsRolledBack() throws InterruptedException {
+		Thread started = new Thread(() -> {});
+		started.start();
+		started.join();
+
+		try (var flock = ThreadFlock.open("test")) {
+			// a thread cannot be started twice
+			assertThrows(IllegalThreadStateException.class, () -> flock.start(task -> started, () -> {}));
+			assertEquals(0, flock.threads().count());
+			assertNull(SharedSecrets.getJavaLangAccess().threadContainer(started));
+		}
+	}
+
+	@RepeatedTest(10)
+	void testCloseWaitsForAll() {
+		final int threadCount = 32;
+		AtomicInteger finished = new AtomicInteger();
+
+		try (var flock = ThreadFlock.open("test")) {
+			for (int i = 0; i < threadCount; i++) {
+				flock.start(Thread::new, () -> {
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException ignored) {
+					}
+					finished.incrementAndGet();
+				});
+			}
+		}
+
+		assertEquals(threadCount, finished.get());
+	}
+}
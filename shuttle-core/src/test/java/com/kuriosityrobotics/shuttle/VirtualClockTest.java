@@ -0,0 +1,158 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class VirtualClockTest {
+	private VirtualClock clock;
+
+	@BeforeEach
+	void installClock() {
+		clock = new VirtualClock();
+		Clock.set(clock);
+	}
+
+	@AfterEach
+	void restoreClock() {
+		Clock.set(Clock.system());
+	}
+
+	private void awaitWaiting(int threads) {
+		while (clock.waitingThreads() < threads)
+			Thread.yield();
+	}
+
+	@Test
+	void testSleepRunsInVirtualTime() {
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(2), () -> {
+			Instant start = Instant.now();
+			Thread sleeper = new Thread(() -> {
+				try {
+					for (int i = 0; i < 1000; i++)
+						new CancellationToken().sleep(Duration.ofMillis(30)); // 30 seconds in all
+				} catch (InterruptedException e) {
+					throw new AssertionError(e);
+				}
+			});
+			sleeper.start();
+			while (sleeper.isAlive()) {
+				if (!clock.advanceToNextDeadline())
+					Thread.yield();
+			}
+
+			assertEquals(30_000, Instant.now().since(start).toMillis());
+		});
+	}
+
+	@Test
+	void testWaitEndsOnlyAtDeadline() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(1);
+		Thread sleeper = new Thread(() -> {
+			try {
+				new CancellationToken().sleep(Duration.ofSeconds(5));
+				done.countDown();
+			} catch (InterruptedException ignored) { }
+		});
+		sleeper.start();
+		awaitWaiting(1);
+
+		clock.advance(Duration.ofMillis(4999));
+		assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+		clock.advance(Duration.ofMillis(1));
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertEquals(0, clock.waitingThreads());
+	}
+
+	@Test
+	void testJoinUntilAndTryLockTimeOutInVirtualTime() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		try (var scope = HardwareTaskScope.open(InterruptedException.class,
+				StructuredTaskScope.Configuration.defaults().withJoinSpin(Duration.ofNanos(0)))) {
+			scope.fork(() -> release.await());
+
+			AtomicBoolean timedOut = new AtomicBoolean();
+			Thread advancer = new Thread(() -> {
+				awaitWaiting(1);
+				clock.advance(Duration.ofSeconds(1));
+			});
+			advancer.start();
+			try {
+				scope.joinUntil(Instant.now().add(Duration.ofSeconds(1)));
+			} catch (TimeoutException e) {
+				timedOut.set(true);
+			}
+			advancer.join();
+			assertTrue(timedOut.get());
+
+			release.countDown();
+			scope.join();
+		}
+
+		PreemptibleLock lock = new PreemptibleLock(false);
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch unlock = new CountDownLatch(1);
+		Thread holder = new Thread(() -> {
+			lock.lockWithPriority(Integer.MAX_VALUE - 1); // cannot be preempted
+			try {
+				locked.countDown();
+				unlock.await();
+			} catch (InterruptedException ignored) {
+			} finally {
+				lock.unlock();
+			}
+		});
+		holder.start();
+		locked.await();
+
+		Thread advancer = new Thread(() -> {
+			awaitWaiting(1);
+			clock.advance(Duration.ofMillis(100));
+		});
+		advancer.start();
+		assertFalse(lock.tryLock(100, TimeUnit.MILLISECONDS));
+		advancer.join();
+		unlock.countDown();
+		holder.join();
+	}
+
+	@Test
+	void testTimedReadLockTimesOutInVirtualTime() throws InterruptedException {
+		PreemptibleReadWriteLock lock = new PreemptibleReadWriteLock();
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch unlock = new CountDownLatch(1);
+		Thread writer = new Thread(() -> {
+			lock.writeLock().lock();
+			try {
+				locked.countDown();
+				unlock.await();
+			} catch (InterruptedException ignored) {
+			} finally {
+				lock.writeLock().unlock();
+			}
+		});
+		writer.start();
+		locked.await();
+
+		assertTimeoutPreemptively(java.time.Duration.ofSeconds(2), () -> {
+			Instant start = Instant.now();
+			Thread advancer = new Thread(() -> {
+				awaitWaiting(1);
+				assertTrue(clock.advanceToNextDeadline());
+			});
+			advancer.start();
+			assertFalse(lock.readLock().tryLock(5, TimeUnit.SECONDS));
+			advancer.join();
+			assertEquals(5_000, Instant.now().since(start).toMillis());
+		});
+		unlock.countDown();
+		writer.join();
+	}
+}
@@ -0,0 +1,96 @@
+package com.kuriosityrobotics.shuttle;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+class WorkerPoolTest {
+	@Test
+	void testWorkersReusedAcrossScopes() throws InterruptedException {
+		WorkerPool pool = new WorkerPool("test", Duration.ofSeconds(10));
+		AtomicReference<Thread> first = new AtomicReference<>();
+		AtomicReference<Thread> second = new AtomicReference<>();
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, pool)) {
+			scope.fork(() -> first.set(Thread.currentThread()));
+			scope.join();
+		}
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, pool)) {
+			scope.fork(() -> second.set(Thread.currentThread()));
+			scope.join();
+		}
+
+		assertNotNull(first.get());
+		assertSame(first.get(), second.get());
+		assertEquals(1, pool.idleCount());
+	}
+
+	@Test
+	void testWorkerLeavesContainer() throws InterruptedException {
+		WorkerPool pool = new WorkerPool("test", Duration.ofSeconds(10));
+		AtomicReference<ThreadContainer> container = new AtomicReference<>();
+		AtomicReference<Thread> worker = new AtomicReference<>();
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, pool)) {
+			scope.fork(() -> {
+				worker.set(Thread.currentThread());
+				container.set(ThreadContainers.container(Thread.currentThread()));
+			});
+			scope.join();
+		}
+
+		assertNotSame(ThreadContainers.root(), container.get());
+		assertSame(ThreadContainers.root(), ThreadContainers.container(worker.get()));
+	}
+
+	@RepeatedTest(10)
+	void testShutdownInterruptDoesNotLeak() throws InterruptedException {
+		WorkerPool pool = new WorkerPool("test", Duration.ofSeconds(10));
+		CountDownLatch started = new CountDownLatch(1);
+		AtomicBoolean interrupted = new AtomicBoolean();
+		AtomicBoolean leaked = new AtomicBoolean(true);
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, pool)) {
+			scope.fork(() -> {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException e) {
+					interrupted.set(true);
+				}
+			});
+			started.await();
+			scope.shutdown();
+			scope.join();
+		}
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, pool)) {
+			scope.fork(() -> leaked.set(Thread.currentThread().isInterrupted()));
+			scope.join();
+		}
+
+		assertTrue(interrupted.get());
+		assertFalse(leaked.get());
+	}
+
+	@Test
+	void testIdleWorkersRetire() throws InterruptedException {
+		WorkerPool pool = new WorkerPool("test", Duration.ofMillis(50));
+		AtomicReference<Thread> worker = new AtomicReference<>();
+
+		try (var scope = HardwareTaskScope.open(InterruptedException.class, pool)) {
+			scope.fork(() -> worker.set(Thread.currentThread()));
+			scope.join();
+		}
+
+		worker.get().join(1000);
+		assertFalse(worker.get().isAlive());
+		assertEquals(0, pool.idleCount());
+	}
+}
@@ -1,10 +1,13 @@
 package com.kuriosityrobotics.shuttle.hardware;
 
+import com.kuriosityrobotics.shuttle.CancellationToken;
+import com.kuriosityrobotics.shuttle.EventLog;
+import com.kuriosityrobotics.shuttle.PollingHub;
 import com.kuriosityrobotics.shuttle.PreemptibleLock;
-import com.kuriosityrobotics.shuttle.Instant;
 import com.kuriosityrobotics.shuttle.Duration;
 
 import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
 
 /**
  * A synchronous abstraction for controlling a motor, which drives towards a target position.
@@ -13,10 +16,17 @@ import java.util.concurrent.TimeoutException;
  * <p>
  * This class is meant to wrap {@link com.qualcomm.robotcore.hardware.DcMotor}'s builtin
  * PID, which runs asynchronously on the embedded controller.
+ * <p>
+ * Moves wait on a {@link PollingHub}, so that the {@link #isBusy()} checks of every moving
+ * motor are made together, once per hardware cycle, from a single thread.  That thread is
+ * whichever moving motor's thread is polling at the time, so {@link #isBusy()} must be
+ * thread-safe.
  */
 public abstract class LinearMotorControl {
 	protected final PreemptibleLock lock = new PreemptibleLock();
 	private final Duration timeout;
+	private final int id = EventLog.newSubjectId(); // the subject of its EventLog events
+	private final BooleanSupplier arrived = () -> !isBusy(); // one instance, so that moves allocate nothing
 
 	protected LinearMotorControl() {
 		this.timeout = Duration.ofSeconds(5);
@@ -38,34 +48,62 @@ public abstract class LinearMotorControl {
 	 * @throws InterruptedException
 	 */
 	public void goToPosition(double position) throws InterruptedException, TimeoutException {
-		lock.lockInterruptibly();
+		goToPosition(position, PreemptibleLock.DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Moves the motor to the `position` (in meters), like {@link #goToPosition(double)}.
+	 * The move preempts moves of lower or equal priority, and waits for moves of higher priority.
+	 *
+	 * @param position the position, in meters, that the motor should try to go to.
+	 * @param priority the priority of the move; higher values take precedence
+	 * @throws InterruptedException
+	 */
+	public void goToPosition(double position, int priority) throws InterruptedException, TimeoutException {
+		lock.lockInterruptiblyWithPriority(priority);
 		try {
 			setTargetPositionMeters(position);
 
-			Instant startTime = Instant.now();
-			while (isBusy()) {
-				if (Instant.now().since(startTime).isGreaterThan(timeout))
-					throw new TimeoutException("Timed out: did not finish within " + timeout.toSeconds() + " seconds.");
-
-				idle();
+			if (!pollingHub().awaitNanos(arrived, timeout.toNanos())) {
+				EventLog.shared().record(EventLog.Type.TIMEOUT, id, (int) timeout.toMillis());
+				throw new TimeoutException("Timed out: did not finish within " + timeout.toSeconds() + " seconds.");
 			}
-
 		} finally {
 			lock.unlock();
 		}
 	}
 
 	/**
-	 * Waits until the motor's busyness might have changed.  By default, this method waits for 30ms.
+	 * Returns the hub that checks {@link #isBusy()} while a move is in progress.  By default,
+	 * this is the {@linkplain PollingHub#shared() shared hub}, which polls every 30ms;
+	 * override it to poll at the rate of the robot's hardware loop.
+	 */
+	protected PollingHub pollingHub() {
+		return PollingHub.shared();
+	}
+
+	/**
+	 * Waits until the motor's busyness might have changed, which is one period of the
+	 * {@linkplain #pollingHub() polling hub}.
 	 *
-	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 * @throws InterruptedException if the thread is interrupted, or its {@link CancellationToken}
+	 *                              cancelled, while waiting.
+	 * @deprecated moves no longer call this method; they wait on {@link #pollingHub()},
+	 * which is what to override to change how often the motor is checked.  This method is
+	 * final so that subclasses overriding it fail to compile instead of being ignored.
 	 */
-	protected void idle() throws InterruptedException {
-		Thread.sleep(30);
+	@Deprecated
+	protected final void idle() throws InterruptedException {
+		CancellationToken.current().sleep(pollingHub().period());
 	}
 
 	/**
 	 * Returns true if the motor is not at its target position.
+	 * <p>
+	 * While a move is in progress, this method is called by the {@linkplain #pollingHub()
+	 * polling hub} from the thread of whichever move is polling, which need not be this
+	 * motor's, so it must be thread-safe.  A single hardware read, such as
+	 * {@code DcMotor.isBusy()}, is.
 	 *
 	 * @return whether the motor is busy.
 	 */
@@ -1,6 +1,6 @@
 package com.kuriosityrobotics.shuttle.hardware;
 
-import com.kuriosityrobotics.shuttle.Duration;
+import com.kuriosityrobotics.shuttle.CancellationToken;
 import com.kuriosityrobotics.shuttle.Instant;
 import com.kuriosityrobotics.shuttle.PreemptibleLock;
 import com.qualcomm.robotcore.hardware.Servo;
@@ -14,6 +14,9 @@ import java.util.Optional;
  * is within the servo's range of motion.
  */
 public abstract class ServoControl {
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final long SLACK_NANOS = CancellationToken.DEFAULT_SLACK.toNanos();
+
 	private final double servoSpeedRads;
 	private final double rangeRad;
 
@@ -23,9 +26,10 @@ public abstract class ServoControl {
 
 	private final PreemptibleLock lock = new PreemptibleLock();
 
-	private volatile Double previousServoPosition = null; // the last known servo position
-	private volatile Double currentServoTargetPosition = null; // where the servo is currently told to go to; only null at beginning
-	private volatile Instant movementStartTime = null; // when the target Servo position was set
+	// primitives rather than boxes and Instants, so that estimating the position allocates nothing
+	private volatile double previousServoPosition = Double.NaN; // the last known servo position; NaN if unknown
+	private volatile double currentServoTargetPosition = Double.NaN; // where the servo is currently told to go to; only NaN at beginning
+	private volatile long movementStartNanos; // when the target Servo position was set, as Instant nanos
 
 	public ServoControl(Servo servo, double servoSpeedRads, double rangeRad, boolean flipDirection, double zeroPosition) {
 		this.servo = servo;
@@ -36,16 +40,28 @@ public abstract class ServoControl {
 	}
 
 	/**
-	 * Sets the target servo position and sleeps for an estimated time to reach that
+	 * Sets the target servo position and sleeps until the servo is estimated to reach that
 	 * position while holding a lock.
 	 *
 	 * @param position The desired angle position that the servo motor should move to.
 	 */
 	public void goToAngle(double position) throws InterruptedException {
-		lock.lockInterruptibly();
+		goToAngle(position, PreemptibleLock.DEFAULT_PRIORITY);
+	}
+
+	/**
+	 * Moves the servo to the target angle, like {@link #goToAngle(double)}.  The move
+	 * preempts moves of lower or equal priority, and waits for moves of higher priority.
+	 *
+	 * @param position The desired angle position that the servo motor should move to.
+	 * @param priority The priority of the move; higher values take precedence.
+	 */
+	public void goToAngle(double position, int priority) throws InterruptedException {
+		lock.lockInterruptiblyWithPriority(priority);
 		try {
 			setTargetPosition(position);
-			Thread.sleep(estimateTimeToPosition(position).toMillis());
+			// a precise deadline, so that the next motion starts as soon as this one ends
+			CancellationToken.current().sleepUntilNanos(movementStartNanos + estimateNanosToPosition(position), SLACK_NANOS);
 		} finally {
 			lock.unlock();
 		}
@@ -74,22 +90,27 @@ public abstract class ServoControl {
 	 * calculates the current position based on the elapsed time,
 	 */
 	public Optional<Double> getServoPosition() {
-		if (previousServoPosition == null || currentServoTargetPosition == null)
-			return Optional.empty();
-
-		Instant now = Instant.now();
-
-		Duration movementDuration;
-		if (this.currentServoTargetPosition == null)
-			movementDuration = Duration.ofSeconds(0); // no target set, but previous position not null.  assume we are not moving rn
-		else
-			movementDuration = estimateTimeToPosition(currentServoTargetPosition);
+		double position = estimateServoPosition();
+		return Double.isNaN(position) ? Optional.empty() : Optional.of(position);
+	}
 
-		Instant movementEndTime = movementStartTime.add(movementDuration);
-		if (now.isAfter(movementEndTime))
-			return Optional.of(currentServoTargetPosition);
+	/**
+	 * Returns the current position of a servo motor, like {@link #getServoPosition()}, but
+	 * without allocating, for use in control loops.
+	 *
+	 * @return the estimated position, or NaN if the previous position is not known
+	 */
+	public double estimateServoPosition() {
+		double previousPosition = previousServoPosition;
+		double targetPosition = currentServoTargetPosition;
+		if (Double.isNaN(previousPosition) || Double.isNaN(targetPosition))
+			return Double.NaN;
+
+		long elapsedNanos = Instant.nowNanos() - movementStartNanos;
+		if (elapsedNanos > estimateNanosToPosition(targetPosition))
+			return targetPosition;
 		else
-			return Optional.of(previousServoPosition + now.since(movementStartTime).toSeconds() * servoSpeedRads * Math.signum(currentServoTargetPosition - previousServoPosition));
+			return previousPosition + elapsedNanos / NANOS_PER_SECOND * servoSpeedRads * Math.signum(targetPosition - previousPosition);
 	}
 
 	/**
@@ -97,20 +118,18 @@ public abstract class ServoControl {
 	 * position and the servo's speed. It assumes that the servo is moving at a constant speed.
 	 *
 	 * @param targetServoPosition The target position of the servo motor
-	 * @return The method returns a Duration object representing the time required to reach the target position.
+	 * @return The method returns the time required to reach the target position, in nanoseconds.
 	 */
-	private Duration estimateTimeToPosition(double targetServoPosition) {
-		double previousPosition;
-		if (previousServoPosition == null) {
+	private long estimateNanosToPosition(double targetServoPosition) {
+		double previousPosition = previousServoPosition;
+		if (Double.isNaN(previousPosition)) {
 			double leftSideDistance = Math.abs(targetServoPosition - 0);
 			double rightSideDistance = Math.abs(targetServoPosition - 2 * Math.PI);
 
 			previousPosition = leftSideDistance > rightSideDistance ? 0 : 2 * Math.PI;
-		} else {
-			previousPosition = previousServoPosition;
 		}
 
-		return Duration.ofSeconds(Math.abs(targetServoPosition - previousPosition) / servoSpeedRads);
+		return (long) (Math.abs(targetServoPosition - previousPosition) / servoSpeedRads * NANOS_PER_SECOND);
 	}
 
 	/**
@@ -120,15 +139,16 @@ public abstract class ServoControl {
 	 * @param targetPosition The desired position that the servo should move to.
 	 */
 	private void conservativelySetPreviousPosition(double targetPosition) {
-		Optional<Double> currentPosition = getServoPosition();
-		this.previousServoPosition = currentPosition.orElseGet(() -> { // we don't know where the Servo is;  be conservative
+		double currentPosition = estimateServoPosition();
+		if (Double.isNaN(currentPosition)) { // we don't know where the Servo is;  be conservative
 			// there are two worst cases:  the current Servo is at the start of its range, and the current Servo at the end.
 			// Find the longest-running of the two, given the target position
 			double leftSideDistance = Math.abs(targetPosition - 0);
 			double rightSideDistance = Math.abs(targetPosition - 2 * Math.PI);
 
-			return leftSideDistance > rightSideDistance ? 0 : 2 * Math.PI;
-		});
+			currentPosition = leftSideDistance > rightSideDistance ? 0 : 2 * Math.PI;
+		}
+		this.previousServoPosition = currentPosition;
 	}
 
 	/**
@@ -151,7 +171,7 @@ public abstract class ServoControl {
 			throw new IllegalArgumentException("Servo position out of range: " + rawTargetPosition);
 
 		this.currentServoTargetPosition = targetPositionRad;
-		this.movementStartTime = Instant.now();
+		this.movementStartNanos = Instant.nowNanos();
 		servo.setPosition(rawTargetPosition);
 	}
 }